@@ -1,12 +1,19 @@
 package enigma;
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
- *  to and from indices into the alphabet.
+ *  to and from indices into the alphabet.  The symbols of an alphabet are
+ *  usually chars, but may be arbitrary Unicode code points (including
+ *  those outside the Basic Multilingual Plane) or byte values.
  *  @author Nitin Nazeer
  */
 class Alphabet {
 
+    /** Largest span of character codes indexed by a dense table. */
+    private static final int DENSE_LIMIT = 1 << 12;
+
     /** The characters in the alphabet. */
     private final String chars;
 
@@ -14,7 +21,7 @@ class Alphabet {
      *  K (numbering from 0). No character may be duplicated.
      *  @param charss the chars of the alphabet */
     Alphabet(String charss) {
-        this.chars = charss;
+        this(charss, codeUnits(charss));
     }
 
     /** A default alphabet of all upper-case characters. */
@@ -22,26 +29,177 @@ class Alphabet {
         this("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
     }
 
+    /** A new alphabet whose K-th symbol is SYMBOLS[K], written NAME. */
+    private Alphabet(String name, int[] symbols) {
+        this.chars = name;
+        _symbols = symbols;
+        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+        boolean contiguous = true;
+        for (int i = 0; i < symbols.length; i += 1) {
+            int c = symbols[i];
+            if (c < 0 || c > Character.MAX_CODE_POINT) {
+                throw error("not a code point: %d", c);
+            }
+            lo = Math.min(lo, c);
+            hi = Math.max(hi, c);
+            if (c != symbols[0] + i) {
+                contiguous = false;
+            }
+        }
+        if (symbols.length == 0) {
+            lo = hi = 0;
+        }
+        _first = lo;
+        _last = hi;
+        _contiguous = contiguous;
+
+        int span = hi - lo + 1;
+        if (contiguous) {
+            _dense = null;
+            _hashKeys = null;
+            _hashVals = null;
+            _hashShift = 0;
+        } else if (span <= Math.max(DENSE_LIMIT, 4 * symbols.length)) {
+            _dense = new int[span];
+            Arrays.fill(_dense, -1);
+            _hashKeys = null;
+            _hashVals = null;
+            _hashShift = 0;
+        } else {
+            _dense = null;
+            int cap = Integer.highestOneBit(2 * symbols.length - 1) << 1;
+            _hashKeys = new int[cap];
+            _hashVals = new int[cap];
+            _hashShift = Integer.numberOfLeadingZeros(cap) + 1;
+            Arrays.fill(_hashVals, -1);
+        }
+
+        boolean duplicate = false;
+        for (int i = 0; !contiguous && i < symbols.length; i += 1) {
+            duplicate |= !record(symbols[i], i);
+        }
+        _duplicate = duplicate;
+    }
+
+    /** Return the chars of S as ints. */
+    private static int[] codeUnits(String s) {
+        int[] result = new int[s.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = s.charAt(i);
+        }
+        return result;
+    }
+
+    /** Return an alphabet whose K-th symbol is the code point
+     *  CODEPOINTS[K].  No code point may be duplicated. */
+    static Alphabet ofCodePoints(int... codePoints) {
+        Alphabet result = new Alphabet(new String(codePoints, 0,
+                                                  codePoints.length),
+                                       codePoints.clone());
+        if (result._duplicate) {
+            throw error("duplicate code point in alphabet");
+        }
+        return result;
+    }
+
+    /** Return an alphabet whose symbols are the code points of TEXT,
+     *  in order, so that a character outside the Basic Multilingual
+     *  Plane is one symbol rather than two. */
+    static Alphabet ofCodePoints(String text) {
+        return ofCodePoints(text.codePoints().toArray());
+    }
+
+    /** Return the alphabet of the 256 byte values, in which the byte B
+     *  has index B & 0xff. */
+    static Alphabet bytes() {
+        return BYTES;
+    }
+
+    /** Enter CH with INDEX into my lookup table, unless CH is already
+     *  present.  Returns false iff CH was already present. */
+    private boolean record(int ch, int index) {
+        if (_dense != null) {
+            if (_dense[ch - _first] != -1) {
+                return false;
+            }
+            _dense[ch - _first] = index;
+            return true;
+        }
+        int mask = _hashKeys.length - 1;
+        for (int h = hash(ch); ; h = (h + 1) & mask) {
+            if (_hashVals[h] == -1) {
+                _hashKeys[h] = ch;
+                _hashVals[h] = index;
+                return true;
+            } else if (_hashKeys[h] == ch) {
+                return false;
+            }
+        }
+    }
+
+    /** Returns the hash table probe start for CH. */
+    private int hash(int ch) {
+        return ch * 0x9E3779B1 >>> _hashShift;
+    }
+
     /** Returns the size of the alphabet. */
     int size() {
-        return this.chars.length();
+        return _symbols.length;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        return !(this.chars.indexOf(ch) == -1);
+        return toInt(ch) != -1;
     }
 
     /** Returns character number INDEX in the alphabet, where
-     *  0 <= INDEX < size(). */
+     *  0 <= INDEX < size().  The symbol must be a char; use toCodePoint
+     *  for alphabets that have others. */
     char toChar(int index) {
-        return this.chars.charAt(index);
+        return (char) _symbols[index];
+    }
+
+    /** Returns the code point of symbol number INDEX, where
+     *  0 <= INDEX < size(). */
+    int toCodePoint(int index) {
+        return _symbols[index];
     }
 
     /** Returns the index of character CH which must be in
-     *  the alphabet. This is the inverse of toChar(). */
+     *  the alphabet. This is the inverse of toChar(). Returns -1
+     *  if CH is not present. */
     int toInt(char ch) {
-        return this.chars.indexOf(ch);
+        return indexOf(ch);
+    }
+
+    /** Returns the index of the symbol whose code point is CP, or -1 if
+     *  there is none.  This is the inverse of toCodePoint(). */
+    int indexOf(int cp) {
+        int k = cp - _first;
+        if (_contiguous) {
+            return k >= 0 && k < _symbols.length ? k : -1;
+        } else if (_dense != null) {
+            return k >= 0 && k < _dense.length ? _dense[k] : -1;
+        }
+        int mask = _hashKeys.length - 1;
+        for (int h = hash(cp); _hashVals[h] != -1; h = (h + 1) & mask) {
+            if (_hashKeys[h] == cp) {
+                return _hashVals[h];
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the largest code point in the alphabet (0 if it is
+     *  empty). */
+    int maxCodePoint() {
+        return _last;
+    }
+
+    /** Returns true iff this alphabet is the contiguous range of character
+     *  codes from toChar(0) to toChar(size() - 1). */
+    boolean isRange() {
+        return _contiguous;
     }
 
     /**
@@ -50,15 +208,7 @@ class Alphabet {
      * @return whether or not alphabet has a duplicate
      */
     static boolean hasDuplicate(String input) {
-        for (int i = 0; i < input.length(); i += 1) {
-            char checkChar = input.charAt(i);
-            for (int j = i + 1; j < input.length(); j += 1) {
-                if (checkChar == input.charAt(j)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return new Alphabet(input)._duplicate;
     }
 
     /**
@@ -68,4 +218,42 @@ class Alphabet {
     public String toString() {
         return this.chars;
     }
+
+    /** The alphabet of byte values. */
+    private static final Alphabet BYTES;
+    static {
+        int[] values = new int[256];
+        for (int i = 0; i < values.length; i += 1) {
+            values[i] = i;
+        }
+        BYTES = ofCodePoints(values);
+    }
+
+    /** My symbols, in order. */
+    private final int[] _symbols;
+
+    /** The smallest character code in the alphabet. */
+    private final int _first;
+
+    /** The largest character code in the alphabet. */
+    private final int _last;
+
+    /** True iff my characters are consecutive, ascending codes starting
+     *  at _first, so that indices are plain offsets. */
+    private final boolean _contiguous;
+
+    /** When non-null, _dense[C - _first] is the index of C, or -1. */
+    private final int[] _dense;
+
+    /** Open-addressed table of characters, used for sparse alphabets. */
+    private final int[] _hashKeys;
+
+    /** _hashVals[H] is the index of _hashKeys[H], or -1 for empty slots. */
+    private final int[] _hashVals;
+
+    /** Right shift taking a hashed code to a probe start in _hashKeys. */
+    private final int _hashShift;
+
+    /** True iff some character occurs more than once. */
+    private final boolean _duplicate;
 }
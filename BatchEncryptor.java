@@ -0,0 +1,305 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** Converts many independent messages, each with its own setting line,
+ *  in parallel.  Parsed setting lines and plugboard permutations are
+ *  cached, so a setting seen before costs only a copy of its prepared
+ *  session.  Each cache keeps at most a fixed number of entries, least
+ *  recently used first out, so a long-lived encryptor fed endless
+ *  distinct settings stays bounded.
+ *  @author Nitin Nazeer
+ */
+final class BatchEncryptor {
+
+    /** Largest number of messages converted by one task. */
+    private static final int MESSAGES_PER_TASK = 16;
+
+    /** Default number of setting lines and of plugboards cached. */
+    static final int DEFAULT_CACHE_SIZE = 4096;
+
+    /** A batch converter for machines described by SPEC, running on
+     *  POOL, caching at most CACHESIZE setting lines and CACHESIZE
+     *  plugboards. */
+    BatchEncryptor(MachineSpec spec, ForkJoinPool pool, int cacheSize) {
+        if (cacheSize < 1) {
+            throw error("cache must hold at least one setting");
+        }
+        _spec = spec;
+        _pool = pool;
+        _sessions = lru(cacheSize);
+        _plugboards = lru(cacheSize);
+    }
+
+    /** A batch converter for machines described by SPEC, running on
+     *  POOL. */
+    BatchEncryptor(MachineSpec spec, ForkJoinPool pool) {
+        this(spec, pool, DEFAULT_CACHE_SIZE);
+    }
+
+    /** A batch converter for machines described by SPEC, running on the
+     *  common pool. */
+    BatchEncryptor(MachineSpec spec) {
+        this(spec, ForkJoinPool.commonPool());
+    }
+
+    /** A message to convert: a setting line in the format accepted by
+     *  Main, and the text to convert under it. */
+    static final class Job {
+
+        /** A job converting TEXT under setting line SETTING. */
+        Job(String setting, String text) {
+            _setting = setting;
+            _text = text;
+        }
+
+        /** Return my setting line. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return my text. */
+        String text() {
+            return _text;
+        }
+
+        /** My setting line. */
+        private final String _setting;
+
+        /** My text. */
+        private final String _text;
+    }
+
+    /** The outcome of converting a batch. */
+    static final class Result {
+
+        /** A result holding OUTPUTS, which converted CHARACTERS characters
+         *  in NANOS nanoseconds. */
+        private Result(List<String> outputs, long characters, long nanos) {
+            _outputs = Collections.unmodifiableList(outputs);
+            _characters = characters;
+            _nanos = nanos;
+        }
+
+        /** Return the converted messages, in the order of their jobs. */
+        List<String> outputs() {
+            return _outputs;
+        }
+
+        /** Return the number of characters converted. */
+        long characters() {
+            return _characters;
+        }
+
+        /** Return the elapsed time for the whole batch, in nanoseconds. */
+        long nanos() {
+            return _nanos;
+        }
+
+        /** Return the number of characters converted per second. */
+        double charactersPerSecond() {
+            return _nanos == 0 ? 0 : _characters * 1e9 / _nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d messages, %d characters in %.3f ms"
+                                 + " (%.0f chars/s)", _outputs.size(),
+                                 _characters, _nanos / 1e6,
+                                 charactersPerSecond());
+        }
+
+        /** Converted messages. */
+        private final List<String> _outputs;
+
+        /** Number of characters converted. */
+        private final long _characters;
+
+        /** Elapsed time. */
+        private final long _nanos;
+    }
+
+    /** Convert each of JOBS under its own setting, in parallel, and
+     *  return the outputs with aggregate statistics.  Whitespace in the
+     *  texts is dropped, as Main does. */
+    Result encrypt(List<Job> jobs) {
+        long start = System.nanoTime();
+        String[] outputs = new String[jobs.size()];
+        AtomicLong characters = new AtomicLong();
+        _pool.invoke(new Batch(jobs, outputs, characters, 0, jobs.size()));
+        ArrayList<String> list = new ArrayList<>(outputs.length);
+        Collections.addAll(list, outputs);
+        return new Result(list, characters.get(), System.nanoTime() - start);
+    }
+
+    /** Return the conversion of TEXT under setting line SETTING,
+     *  dropping whitespace, on the calling thread. */
+    String encrypt(String setting, String text) {
+        char[] buf = SCRATCH.get();
+        if (buf.length < text.length()) {
+            buf = new char[text.length()];
+            SCRATCH.set(buf);
+        }
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        String result = convert(session(setting), text, buf);
+        if (Metrics.ENABLED) {
+            Metrics.message(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /** Return the number of setting lines parsed so far (cache misses). */
+    long settingsParsed() {
+        return _settingsParsed.get();
+    }
+
+    /** Return the number of setting lines found in the cache. */
+    long settingsReused() {
+        return _settingLookups.get() - _settingsParsed.get();
+    }
+
+    /** Forget all cached settings and plugboards. */
+    void clearCache() {
+        _sessions.clear();
+        _plugboards.clear();
+    }
+
+    /** Return a synchronized map holding at most MAXENTRIES entries,
+     *  dropping the least recently used. */
+    private static <V> Map<String, V> lru(int maxEntries) {
+        return Collections.synchronizedMap(
+            new LinkedHashMap<String, V>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, V> e) {
+                    return size() > maxEntries;
+                }
+            });
+    }
+
+    /** Return a fresh session for setting line LINE.  Lines are parsed
+     *  outside the cache's lock, so two threads meeting a new line at
+     *  once may both parse it. */
+    private CompiledMachine session(String line) {
+        _settingLookups.incrementAndGet();
+        CompiledMachine prepared = _sessions.get(line);
+        if (prepared == null) {
+            prepared = prepare(line);
+            _sessions.put(line, prepared);
+        }
+        return prepared.copy();
+    }
+
+    /** Return a session for setting line LINE, in its initial settings. */
+    private CompiledMachine prepare(String line) {
+        _settingsParsed.incrementAndGet();
+        Setting setting = Setting.parse(line, _spec.numRotors());
+        if (Metrics.ENABLED) {
+            Metrics.settingParsed();
+        }
+        Permutation plugboard = _plugboards.get(setting.plugboard());
+        if (plugboard == null) {
+            plugboard = new Permutation(setting.plugboard(),
+                                        _spec.alphabet());
+            _plugboards.put(setting.plugboard(), plugboard);
+        }
+        return _spec.session(setting.rotors(), setting.setting(),
+                             setting.rings(), plugboard);
+    }
+
+    /** Return the conversion of TEXT by M, skipping whitespace, using
+     *  BUF, which must be at least as long as TEXT, as scratch space. */
+    private static String convert(CompiledMachine M, String text,
+                                  char[] buf) {
+        int len = text.length();
+        text.getChars(0, len, buf, 0);
+        return new String(buf, 0, M.convertMessage(buf, 0, len, buf, 0, 0));
+    }
+
+    /** A task converting a range of jobs. */
+    private final class Batch extends RecursiveAction {
+
+        /** A task converting JOBS[FROM..TO-1] into OUTPUTS, adding the
+         *  number of characters converted to CHARACTERS. */
+        Batch(List<Job> jobs, String[] outputs, AtomicLong characters,
+              int from, int to) {
+            _jobs = jobs;
+            _outputs = outputs;
+            _characters = characters;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from > MESSAGES_PER_TASK) {
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new Batch(_jobs, _outputs, _characters, _from, mid),
+                          new Batch(_jobs, _outputs, _characters, mid, _to));
+                return;
+            }
+            char[] buf = SCRATCH.get();
+            long count = 0;
+            for (int i = _from; i < _to; i += 1) {
+                Job job = _jobs.get(i);
+                if (buf.length < job.text().length()) {
+                    buf = new char[job.text().length()];
+                    SCRATCH.set(buf);
+                }
+                long start = Metrics.ENABLED ? System.nanoTime() : 0;
+                _outputs[i] = convert(session(job.setting()), job.text(),
+                                      buf);
+                if (Metrics.ENABLED) {
+                    Metrics.message(System.nanoTime() - start);
+                }
+                count += _outputs[i].length();
+            }
+            _characters.addAndGet(count);
+        }
+
+        /** All jobs. */
+        private final List<Job> _jobs;
+
+        /** Converted jobs. */
+        private final String[] _outputs;
+
+        /** Total characters converted. */
+        private final AtomicLong _characters;
+
+        /** First job I convert. */
+        private final int _from;
+
+        /** One past the last job I convert. */
+        private final int _to;
+    }
+
+    /** Per-thread scratch buffer for converted text. */
+    private static final ThreadLocal<char[]> SCRATCH =
+        ThreadLocal.withInitial(() -> new char[256]);
+
+    /** Description of my machines. */
+    private final MachineSpec _spec;
+
+    /** Pool running my tasks. */
+    private final ForkJoinPool _pool;
+
+    /** Prepared sessions, in their initial settings, by setting line. */
+    private final Map<String, CompiledMachine> _sessions;
+
+    /** Plugboard permutations, by cycle string. */
+    private final Map<String, Permutation> _plugboards;
+
+    /** Number of setting lines parsed. */
+    private final AtomicLong _settingsParsed = new AtomicLong();
+
+    /** Number of setting lines looked up. */
+    private final AtomicLong _settingLookups = new AtomicLong();
+}
@@ -0,0 +1,110 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the BatchEncryptor class.
+ *  @author Nitin Nazeer
+ */
+public class BatchEncryptorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String[] SETTINGS = {
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "* C Gamma I II III QEVJ BCDE (AZ)",
+        "* B Beta V VI VIII ZZZZ",
+    };
+
+    private final MachineSpec spec =
+        new MachineSpec(UPPER, 5, 3, navalRotors());
+
+    /** Return the conversion of TEXT under setting line LINE by a
+     *  Machine. */
+    private String reference(String line, String text) {
+        Setting s = Setting.parse(line, 5);
+        return navalMachine(s.rotors(), s.setting(), s.rings(),
+                            s.plugboard()).convert(text);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkBatch() {
+        List<BatchEncryptor.Job> jobs = new ArrayList<>();
+        for (int k = 0; k < 200; k += 1) {
+            String text = HIAWATHA.substring(k % 50, 50 + k);
+            jobs.add(new BatchEncryptor.Job(SETTINGS[k % SETTINGS.length],
+                                            text));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BatchEncryptor batch = new BatchEncryptor(spec, pool);
+            BatchEncryptor.Result result = batch.encrypt(jobs);
+
+            long characters = 0;
+            for (int k = 0; k < jobs.size(); k += 1) {
+                BatchEncryptor.Job job = jobs.get(k);
+                assertEquals(reference(job.setting(), job.text()),
+                             result.outputs().get(k));
+                characters += job.text().length();
+            }
+            assertEquals(characters, result.characters());
+            assertEquals(jobs.size(),
+                         batch.settingsParsed() + batch.settingsReused());
+            assertTrue(batch.settingsParsed() >= SETTINGS.length);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void checkCacheBounded() {
+        BatchEncryptor batch =
+            new BatchEncryptor(spec, ForkJoinPool.commonPool(), 2);
+        for (int round = 0; round < 3; round += 1) {
+            for (String setting : SETTINGS) {
+                assertEquals(reference(setting, "HIAWATHA"),
+                             batch.encrypt(setting, "HIAWATHA"));
+            }
+        }
+        assertEquals(3 * SETTINGS.length, batch.settingsParsed());
+    }
+
+    @Test
+    public void checkWhitespaceDropped() {
+        List<BatchEncryptor.Job> jobs = new ArrayList<>();
+        jobs.add(new BatchEncryptor.Job(SETTINGS[0], "FROM HIS\tSHOULDER"));
+        BatchEncryptor batch = new BatchEncryptor(spec);
+        assertEquals(reference(SETTINGS[0], "FROMHISSHOULDER"),
+                     batch.encrypt(jobs).outputs().get(0));
+    }
+
+    @Test
+    public void checkSettingParse() {
+        Setting s = Setting.parse("  *  B Beta III IV I  AXLE BCDE "
+                                  + "(HQ) (EX) junk (IP)", 5);
+        assertEquals("III", s.rotors()[2]);
+        assertEquals("AXLE", s.setting());
+        assertEquals("BCDE", s.rings());
+        assertEquals("(HQ)(EX)", s.plugboard());
+        assertNull(Setting.parse("* B Beta III IV I AXLE (HQ)", 5).rings());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadSettingLength() {
+        Setting.parse("* B Beta III IV I AXL", 5);
+    }
+}
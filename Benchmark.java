@@ -0,0 +1,464 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** A self-contained performance harness for the hot paths of the
+ *  simulator: Permutation, Rotor, Machine, CompiledMachine and Main end
+ *  to end, over several alphabet sizes and rotor counts.  For each case
+ *  it reports time and bytes allocated per operation, measured on the
+ *  benchmark thread.  Results can be saved and later compared against,
+ *  failing when any case has slowed by more than a tolerance.
+ *
+ *  Usage: java enigma.Benchmark [-t SECONDS] [-o RESULTS] [-c BASELINE]
+ *  @author Nitin Nazeer
+ */
+public final class Benchmark {
+
+    /** Fraction by which a case may slow down before it counts as a
+     *  regression against a baseline. */
+    private static final double TOLERANCE = 0.25;
+
+    /** Number of measured iterations per case. */
+    private static final int ITERATIONS = 5;
+
+    /** Printable alphabets of increasing size.  Only the first two can
+     *  be written in a configuration file that Main accepts. */
+    private static final String[] ALPHABETS = {
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789_.",
+        range('\u4e00', 1000),
+    };
+
+    /** Numbers of rotor slots to measure, each with all but the
+     *  reflector and one fixed rotor moving. */
+    private static final int[] SLOTS = {3, 5, 8};
+
+    /** Width of the case column: the longest case name. */
+    private static final int NAME_WIDTH =
+        ("CompiledMachine+cache.convert(char) "
+         + tag(ALPHABETS[ALPHABETS.length - 1].length(),
+               SLOTS[SLOTS.length - 1])).length();
+
+    /** Run the benchmarks as described by ARGS (see the class comment). */
+    public static void main(String... args) {
+        try {
+            double seconds = 1;
+            String output = null, baseline = null;
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw error("option %s needs a value", args[i]);
+                }
+                switch (args[i]) {
+                case "-t":
+                    seconds = seconds(args[i + 1]);
+                    break;
+                case "-o":
+                    output = args[i + 1];
+                    break;
+                case "-c":
+                    baseline = args[i + 1];
+                    break;
+                default:
+                    throw error("unknown option %s", args[i]);
+                }
+            }
+            Benchmark bench = new Benchmark(seconds);
+            bench.runAll();
+            if (output != null) {
+                bench.save(output);
+            }
+            if (baseline != null && !bench.compare(baseline)) {
+                System.exit(1);
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return the positive number of seconds in TEXT. */
+    private static double seconds(String text) {
+        double result;
+        try {
+            result = Double.parseDouble(text);
+        } catch (NumberFormatException excp) {
+            throw error("bad time %s", text);
+        }
+        if (!(result > 0)) {
+            throw error("bad time %s", text);
+        }
+        return result;
+    }
+
+    /** Return the tag naming cases over an alphabet of N symbols in
+     *  SLOTS slots. */
+    private static String tag(int n, int slots) {
+        return "[n=" + n + ", slots=" + slots + "]";
+    }
+
+    /** A harness spending about SECONDS measuring each case. */
+    Benchmark(double seconds) {
+        _nanosPerIteration = (long) (seconds * 1e9 / ITERATIONS);
+    }
+
+    /** An operation to measure. */
+    interface Op {
+        /** Perform one batch of work and return a value depending on all
+         *  of it, so that it cannot be optimized away. */
+        long run();
+    }
+
+    /** Measure every case, printing a line for each. */
+    void runAll() {
+        System.out.printf("%-" + NAME_WIDTH + "s %12s %14s %10s%n",
+                          "case", "ns/op", "ops/s", "B/op");
+        Random random = new Random(42);
+        for (String alphabet : ALPHABETS) {
+            Alphabet alpha = new Alphabet(alphabet);
+            int n = alpha.size();
+            Permutation perm = new Permutation(cycles(alphabet, random,
+                                                      false), alpha);
+            int[] inputs = indices(random, n, 1 << 12);
+            String tag = "[n=" + n + "]";
+
+            measure("Permutation.permute(int) " + tag, inputs.length, () -> {
+                long sum = 0;
+                for (int p : inputs) {
+                    sum += perm.permute(p);
+                }
+                return sum;
+            });
+            measure("Permutation.invert(int) " + tag, inputs.length, () -> {
+                long sum = 0;
+                for (int p : inputs) {
+                    sum += perm.invert(p);
+                }
+                return sum;
+            });
+            Rotor rotor = new MovingRotor("R", perm,
+                                          alphabet.substring(0, 1));
+            rotor.set(n / 3);
+            rotor.setRing(1);
+            measure("Rotor.convertForward " + tag, inputs.length, () -> {
+                long sum = 0;
+                for (int p : inputs) {
+                    sum += rotor.convertForward(p);
+                }
+                return sum;
+            });
+            measure("Rotor.convertBackward " + tag, inputs.length, () -> {
+                long sum = 0;
+                for (int p : inputs) {
+                    sum += rotor.convertBackward(p);
+                }
+                return sum;
+            });
+
+            for (int slots : SLOTS) {
+                measureMachine(alphabet, slots, random);
+            }
+            if (alphabet.length() <= 64) {
+                measureMain(alphabet, random);
+            }
+        }
+    }
+
+    /** Measure Machine and CompiledMachine conversion with SLOTS slots
+     *  over ALPHABET, using RANDOM to generate the configuration. */
+    private void measureMachine(String alphabet, int slots, Random random) {
+        Alphabet alpha = new Alphabet(alphabet);
+        Machine machine = randomMachine(alphabet, slots, random);
+        String msg = randomText(alphabet, random, 1 << 12);
+        char[] chars = msg.toCharArray();
+        String tag = tag(alpha.size(), slots);
+
+        measure("Machine.convert(char) " + tag, chars.length, () -> {
+            long sum = 0;
+            for (char c : chars) {
+                sum += machine.convert(c);
+            }
+            return sum;
+        });
+        measure("Machine.convert(String) " + tag, msg.length(),
+            () -> machine.convert(msg).hashCode());
+        CompiledMachine compiled = machine.compile();
+        measure("CompiledMachine.convert(char) " + tag, chars.length, () -> {
+            long sum = 0;
+            for (char c : chars) {
+                sum += compiled.convert(c);
+            }
+            return sum;
+        });
+        measure("CompiledMachine.convert(String) " + tag, msg.length(),
+            () -> compiled.convert(msg).hashCode());
+        CompiledMachine cached = machine.compile();
+        cached.useCache(ScramblerCache.withBudget(1 << 24, alpha.size()));
+        measure("CompiledMachine+cache.convert(char) " + tag, chars.length,
+            () -> {
+                long sum = 0;
+                for (char c : chars) {
+                    sum += cached.convert(c);
+                }
+                return sum;
+            });
+
+        String[] names = new String[slots];
+        for (int i = 0; i < slots; i += 1) {
+            names[i] = machine.getRotor(i).name();
+        }
+        String[] starts = new String[64], messages = new String[64];
+        for (int k = 0; k < messages.length; k += 1) {
+            starts[k] = randomText(alphabet, random, slots - 1);
+            messages[k] = randomText(alphabet, random, 256);
+        }
+        LaneEngine lanes = new LaneEngine(machine.spec(), names, null,
+                                          machine.plugboard());
+        measure("LaneEngine.convert " + tag, 64 * 256,
+            () -> lanes.convert(starts, messages)[0].hashCode());
+    }
+
+    /** Measure Main converting a generated file of messages over
+     *  ALPHABET, per character of message text. */
+    private void measureMain(String alphabet, Random random) {
+        try {
+            File dir = Files.createTempDirectory("enigma-bench").toFile();
+            File config = new File(dir, "bench.conf");
+            File input = new File(dir, "bench.in");
+            File output = new File(dir, "bench.out");
+            try (PrintWriter out = new PrintWriter(config, "UTF-8")) {
+                out.println(alphabet);
+                out.println(" 5 3");
+                out.printf(" Refl R %s%n", cycles(alphabet, random, true));
+                out.printf(" F1 N %s%n", cycles(alphabet, random, false));
+                for (int i = 2; i < 5; i += 1) {
+                    out.printf(" M%d M%s %s%n", i,
+                               randomText(alphabet, random, 2),
+                               cycles(alphabet, random, false));
+                }
+            }
+            int chars = 0;
+            try (PrintWriter out = new PrintWriter(input, "UTF-8")) {
+                for (int m = 0; m < 64; m += 1) {
+                    out.printf("* Refl F1 M2 M3 M4 %s%n",
+                               randomText(alphabet, random, 4));
+                    for (int line = 0; line < 16; line += 1) {
+                        String text = randomText(alphabet, random, 60);
+                        out.println(text);
+                        chars += text.length();
+                    }
+                }
+            }
+            String[] args = {config.getPath(), input.getPath(),
+                             output.getPath()};
+            measure("Main end to end [n=" + alphabet.length() + "]", chars,
+                () -> {
+                    Main.main(args);
+                    return output.length();
+                });
+            config.delete();
+            input.delete();
+            output.delete();
+            dir.delete();
+        } catch (IOException excp) {
+            throw error("could not write benchmark input: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** Run OP repeatedly for the configured time, where each run performs
+     *  OPS operations, and print and record its cost per operation. */
+    void measure(String name, int ops, Op op) {
+        long sink = 0;
+        long deadline = System.nanoTime() + _nanosPerIteration;
+        while (System.nanoTime() < deadline) {
+            sink += op.run();
+        }
+
+        double bestNanos = Double.MAX_VALUE;
+        long totalOps = 0, totalBytes = 0;
+        for (int it = 0; it < ITERATIONS; it += 1) {
+            long runs = 0, bytes = allocatedBytes();
+            long start = System.nanoTime(), now = start;
+            deadline = start + _nanosPerIteration;
+            while (now < deadline) {
+                sink += op.run();
+                runs += 1;
+                now = System.nanoTime();
+            }
+            totalBytes += allocatedBytes() - bytes;
+            totalOps += runs * ops;
+            bestNanos = Math.min(bestNanos,
+                                 (double) (now - start) / (runs * ops));
+        }
+        double bytesPerOp = totalBytes < 0 ? Double.NaN
+            : (double) totalBytes / totalOps;
+        System.out.printf("%-" + NAME_WIDTH + "s %12.2f %14.0f %10.2f%n",
+                          name, bestNanos, 1e9 / bestNanos, bytesPerOp);
+        _results.put(name, bestNanos);
+        _sink += sink;
+    }
+
+    /** Return the bytes allocated so far by the current thread, or a
+     *  negative number if the JVM cannot say. */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return Long.MIN_VALUE / 2;
+    }
+
+    /** Write my results to the file named NAME, one "ns/op<TAB>case"
+     *  line per case. */
+    void save(String name) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(name))) {
+            for (Map.Entry<String, Double> e : _results.entrySet()) {
+                out.printf("%.4f\t%s%n", e.getValue(), e.getKey());
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", name);
+        }
+    }
+
+    /** Compare my results with those saved in the file named NAME,
+     *  reporting each case more than TOLERANCE slower.  Returns true iff
+     *  there are none. */
+    boolean compare(String name) {
+        boolean ok = true;
+        try {
+            for (String line : Files.readAllLines(new File(name).toPath(),
+                                                  StandardCharsets.UTF_8)) {
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                double before = Double.parseDouble(line.substring(0, tab));
+                Double after = _results.get(line.substring(tab + 1));
+                if (after != null && after > before * (1 + TOLERANCE)) {
+                    System.out.printf("REGRESSION %s: %.2f -> %.2f ns/op%n",
+                                      line.substring(tab + 1), before, after);
+                    ok = false;
+                }
+            }
+        } catch (IOException | NumberFormatException excp) {
+            throw error("could not read baseline %s", name);
+        }
+        return ok;
+    }
+
+    /** Return a machine over ALPHABET with SLOTS slots of random rotors,
+     *  set to random settings, with a random plugboard. */
+    static Machine randomMachine(String alphabet, int slots, Random random) {
+        Alphabet alpha = new Alphabet(alphabet);
+        int pawls = slots - 2;
+        List<String> names = new ArrayList<>();
+        Machine machine = new Machine(alpha, slots, pawls,
+            randomRotors(alphabet, slots, pawls, random, names));
+        machine.insertRotors(names.toArray(new String[0]));
+        machine.setRotors(randomText(alphabet, random, slots - 1));
+        machine.setRings(randomText(alphabet, random, slots - 1));
+        machine.setPlugboard(new Permutation(cycles(alphabet, random, true),
+                                             alpha));
+        return machine;
+    }
+
+    /** Return a reflector followed by SLOTS - 1 random rotors over
+     *  ALPHABET, the last PAWLS of them moving, adding their names in
+     *  order to NAMES. */
+    static List<Rotor> randomRotors(String alphabet, int slots, int pawls,
+                                    Random random, List<String> names) {
+        Alphabet alpha = new Alphabet(alphabet);
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("Refl", new Permutation(
+            cycles(alphabet, random, true), alpha)));
+        for (int i = 1; i < slots; i += 1) {
+            Permutation perm = new Permutation(cycles(alphabet, random,
+                                                      false), alpha);
+            if (i >= slots - pawls) {
+                String notches = randomText(alphabet, random, 2);
+                rotors.add(new MovingRotor("M" + i, perm, notches));
+            } else {
+                rotors.add(new FixedRotor("F" + i, perm));
+            }
+        }
+        for (Rotor r : rotors) {
+            names.add(r.name());
+        }
+        return rotors;
+    }
+
+    /** Return a random permutation of ALPHABET in cycle notation.  If
+     *  PAIRS, it consists of 2-cycles only. */
+    static String cycles(String alphabet, Random random, boolean pairs) {
+        List<Character> chars = new ArrayList<>();
+        for (char c : alphabet.toCharArray()) {
+            chars.add(c);
+        }
+        Collections.shuffle(chars, random);
+        StringBuilder result = new StringBuilder();
+        int i = 0;
+        while (i < chars.size()) {
+            int len = pairs ? 2 : 1 + random.nextInt(chars.size() - i);
+            len = Math.min(len, chars.size() - i);
+            result.append('(');
+            for (int k = 0; k < len; k += 1) {
+                result.append(chars.get(i + k));
+            }
+            result.append(')');
+            i += len;
+        }
+        return result.toString();
+    }
+
+    /** Return LEN random characters of ALPHABET. */
+    static String randomText(String alphabet, Random random, int len) {
+        char[] result = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            result[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(result);
+    }
+
+    /** Return LEN random indices below N. */
+    private static int[] indices(Random random, int n, int len) {
+        int[] result = new int[len];
+        for (int i = 0; i < len; i += 1) {
+            result[i] = random.nextInt(n);
+        }
+        return result;
+    }
+
+    /** Return the LEN consecutive characters starting at FIRST. */
+    private static String range(char first, int len) {
+        char[] result = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            result[i] = (char) (first + i);
+        }
+        return new String(result);
+    }
+
+    /** Nanoseconds spent on each measured iteration. */
+    private final long _nanosPerIteration;
+
+    /** Best ns/op for each case, in order of measurement. */
+    private final Map<String, Double> _results = new LinkedHashMap<>();
+
+    /** Accumulated results of every run, kept so no work is dead. */
+    private long _sink;
+}
@@ -0,0 +1,391 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A simulated Turing-Welchman bombe.  Given a crib (guessed plaintext)
+ *  and the ciphertext it encrypts to, it builds the menu of letter pairs
+ *  and, for every rotor order and setting, tests the hypothesis that the
+ *  plugboard maps the menu's most connected letter to each letter in
+ *  turn.  Each hypothesis is propagated through the menu and the
+ *  diagonal board as a set of live "wires" (letter, plugboard image),
+ *  kept as one bitset per letter.  A setting is a stop when some
+ *  hypothesis closes without contradiction.  Unlike the original
+ *  machines, the scrambler at each crib offset is computed with the
+ *  simulator's exact stepping, so middle-rotor turnovers are handled.
+ *  @author Nitin Nazeer
+ */
+final class Bombe {
+
+    /** A bombe for the machines described by SPEC, running on POOL. */
+    Bombe(MachineSpec spec, ForkJoinPool pool) {
+        _spec = spec;
+        _pool = pool;
+    }
+
+    /** A bombe for the machines described by SPEC, running on the common
+     *  pool. */
+    Bombe(MachineSpec spec) {
+        this(spec, ForkJoinPool.commonPool());
+    }
+
+    /** A setting at which the bombe stopped. */
+    static final class Stop {
+
+        /** A stop with rotors ROTORS in SETTING, at which the plugboard
+         *  pairs PLUGBOARD (in cycle notation) were deduced. */
+        Stop(String[] rotors, String setting, String plugboard) {
+            _rotors = rotors;
+            _setting = setting;
+            _plugboard = plugboard;
+        }
+
+        /** Return the rotor names, reflector first. */
+        String[] rotors() {
+            return _rotors;
+        }
+
+        /** Return the rotor settings at the first crib character, with
+         *  all ring settings 0. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return the plugboard pairs deduced at this stop. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        @Override
+        public String toString() {
+            return "* " + String.join(" ", _rotors) + " " + _setting + " "
+                + _plugboard;
+        }
+
+        /** Rotor names. */
+        private final String[] _rotors;
+
+        /** Rotor settings. */
+        private final String _setting;
+
+        /** Deduced plugboard pairs. */
+        private final String _plugboard;
+    }
+
+    /** The outcome of a run. */
+    static final class Result {
+
+        /** A result holding STOPS, found after testing POSITIONS rotor
+         *  settings in NANOS nanoseconds. */
+        private Result(List<Stop> stops, long positions, long nanos) {
+            _stops = Collections.unmodifiableList(stops);
+            _positions = positions;
+            _nanos = nanos;
+        }
+
+        /** Return the stops, in order of rotor order and setting. */
+        List<Stop> stops() {
+            return _stops;
+        }
+
+        /** Return the number of rotor settings tested. */
+        long positions() {
+            return _positions;
+        }
+
+        /** Return the elapsed time, in nanoseconds. */
+        long nanos() {
+            return _nanos;
+        }
+
+        /** Return the number of rotor settings tested per second. */
+        double positionsPerSecond() {
+            return _nanos == 0 ? 0 : _positions * 1e9 / _nanos;
+        }
+
+        /** Return the number of stops per second. */
+        double stopsPerSecond() {
+            return _nanos == 0 ? 0 : _stops.size() * 1e9 / _nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d stops in %d positions, %.3f ms"
+                                 + " (%.0f positions/s, %.1f stops/s)",
+                                 _stops.size(), _positions, _nanos / 1e6,
+                                 positionsPerSecond(), stopsPerSecond());
+        }
+
+        /** Stops found. */
+        private final List<Stop> _stops;
+
+        /** Settings tested. */
+        private final long _positions;
+
+        /** Elapsed time. */
+        private final long _nanos;
+    }
+
+    /** Run the bombe on CRIB, the guessed plaintext of CIPHER, trying
+     *  every rotor order and setting, with all rings at 0.  The two must
+     *  have the same length, ignoring whitespace. */
+    Result run(String crib, String cipher) {
+        long start = System.nanoTime();
+        Menu menu = new Menu(indices(crib), indices(cipher));
+        List<String[]> orders = new KeySearch(_spec).orders();
+        LongAdder positions = new LongAdder();
+        int n = _spec.alphabet().size();
+        List<Stop> stops = _pool.invoke(
+            new Run(menu, orders, positions, 0, orders.size() * n));
+        return new Result(stops, positions.sum(), System.nanoTime() - start);
+    }
+
+    /** Return the indices of the non-whitespace characters of TEXT. */
+    private int[] indices(String text) {
+        Alphabet alpha = _spec.alphabet();
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                result[n] = alpha.toInt(c);
+                if (result[n] < 0) {
+                    throw error("character '%c' not in alphabet", c);
+                }
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** The letter-pair graph of a crib. */
+    private final class Menu {
+
+        /** The menu for plaintext CRIB encrypting to CIPHER. */
+        Menu(int[] crib, int[] cipher) {
+            if (crib.length == 0) {
+                throw error("empty crib");
+            } else if (crib.length != cipher.length) {
+                throw error("crib and ciphertext lengths differ");
+            }
+            int n = _spec.alphabet().size();
+            int[] degree = new int[n];
+            for (int i = 0; i < crib.length; i += 1) {
+                if (crib[i] == cipher[i]) {
+                    throw error("crib letter encrypts to itself at %d", i);
+                }
+                degree[crib[i]] += 1;
+                degree[cipher[i]] += 1;
+            }
+            neighbors = new int[n][];
+            offsets = new int[n][];
+            int test = 0;
+            for (int c = 0; c < n; c += 1) {
+                neighbors[c] = new int[degree[c]];
+                offsets[c] = new int[degree[c]];
+                if (degree[c] > degree[test]) {
+                    test = c;
+                }
+                degree[c] = 0;
+            }
+            for (int i = 0; i < crib.length; i += 1) {
+                link(crib[i], cipher[i], i, degree);
+                link(cipher[i], crib[i], i, degree);
+            }
+            testLetter = test;
+            length = crib.length;
+        }
+
+        /** Record an edge from A to B at crib offset I, where FILLED[A]
+         *  counts A's edges recorded so far. */
+        private void link(int a, int b, int i, int[] filled) {
+            neighbors[a][filled[a]] = b;
+            offsets[a][filled[a]] = i;
+            filled[a] += 1;
+        }
+
+        /** neighbors[C] lists the letters paired with C in the crib. */
+        final int[][] neighbors;
+
+        /** offsets[C][K] is the crib offset of the pair with
+         *  neighbors[C][K]. */
+        final int[][] offsets;
+
+        /** The letter whose plugboard image is hypothesized. */
+        final int testLetter;
+
+        /** Length of the crib. */
+        final int length;
+    }
+
+    /** A task running the bombe on a range of (rotor order, leftmost
+     *  setting) pairs, returning its stops. */
+    private final class Run extends RecursiveTask<List<Stop>> {
+
+        /** A task for pairs FROM..TO-1 of ORDERS, testing MENU and
+         *  counting settings tested in POSITIONS. */
+        Run(Menu menu, List<String[]> orders, LongAdder positions,
+            int from, int to) {
+            _menu = menu;
+            _orders = orders;
+            _positions = positions;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected List<Stop> compute() {
+            if (_to - _from > 1) {
+                int mid = (_from + _to) >>> 1;
+                Run left = new Run(_menu, _orders, _positions, _from, mid);
+                left.fork();
+                List<Stop> right =
+                    new Run(_menu, _orders, _positions, mid, _to).compute();
+                List<Stop> result = new ArrayList<>(left.join());
+                result.addAll(right);
+                return result;
+            }
+            int n = _spec.alphabet().size();
+            return runLeaf(_orders.get(_from / n), _from % n);
+        }
+
+        /** Return the stops for ORDER with the leftmost rotor in setting
+         *  FIRST. */
+        private List<Stop> runLeaf(String[] order, int first) {
+            int n = _spec.alphabet().size();
+            int slots = order.length;
+            int words = (n + 63) >>> 6;
+            CompiledMachine m = _spec.session(order, null, null, null);
+            int[][] tables = new int[_menu.length][n];
+            long[][] live = new long[n][words];
+            long[] covered = new long[words];
+            int[] queue = new int[n * n];
+            int[] posn = new int[slots];
+            posn[1] = first;
+            List<Stop> stops = new ArrayList<>();
+            long tested = 0;
+
+            do {
+                for (int i = 1; i < slots; i += 1) {
+                    m.set(i, posn[i], 0);
+                }
+                for (int j = 0; j < _menu.length; j += 1) {
+                    m.advanceRotors();
+                    for (int v = 0; v < n; v += 1) {
+                        tables[j][v] = m.scramble(v);
+                    }
+                }
+                tested += 1;
+                Arrays.fill(covered, 0);
+                int a = _menu.testLetter;
+                for (int x = 0; x < n; x += 1) {
+                    if ((covered[x >>> 6] & (1L << x)) != 0) {
+                        continue;
+                    }
+                    close(a, x, tables, live, queue);
+                    for (int w = 0; w < words; w += 1) {
+                        covered[w] |= live[a][w];
+                    }
+                    if (consistent(live)) {
+                        stops.add(stop(order, posn, live));
+                    }
+                }
+            } while (KeySearch.next(posn, 2, slots, n));
+            _positions.add(tested);
+            return stops;
+        }
+
+        /** Set LIVE to the wires implied by the hypothesis that letter A
+         *  is plugged to X, under the scramblers TABLES, using QUEUE as
+         *  a work list. */
+        private void close(int a, int x, int[][] tables, long[][] live,
+                           int[] queue) {
+            int n = live.length;
+            for (long[] row : live) {
+                Arrays.fill(row, 0);
+            }
+            int head = 0, tail = 0;
+            live[a][x >>> 6] |= 1L << x;
+            queue[tail++] = a * n + x;
+            while (head < tail) {
+                int u = queue[head] / n, v = queue[head] % n;
+                head += 1;
+                if ((live[v][u >>> 6] & (1L << u)) == 0) {
+                    live[v][u >>> 6] |= 1L << u;
+                    queue[tail++] = v * n + u;
+                }
+                int[] nbrs = _menu.neighbors[u], offs = _menu.offsets[u];
+                for (int k = 0; k < nbrs.length; k += 1) {
+                    int w = nbrs[k], e = tables[offs[k]][v];
+                    if ((live[w][e >>> 6] & (1L << e)) == 0) {
+                        live[w][e >>> 6] |= 1L << e;
+                        queue[tail++] = w * n + e;
+                    }
+                }
+            }
+        }
+
+        /** Returns true iff no letter has more than one live wire in
+         *  LIVE. */
+        private boolean consistent(long[][] live) {
+            for (long[] row : live) {
+                int count = 0;
+                for (long word : row) {
+                    count += Long.bitCount(word);
+                }
+                if (count > 1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Return a stop for ORDER in settings POSN with the plugboard
+         *  pairs in LIVE. */
+        private Stop stop(String[] order, int[] posn, long[][] live) {
+            Alphabet alpha = _spec.alphabet();
+            char[] setting = new char[posn.length - 1];
+            for (int i = 1; i < posn.length; i += 1) {
+                setting[i - 1] = alpha.toChar(posn[i]);
+            }
+            StringBuilder plugs = new StringBuilder();
+            for (int u = 0; u < live.length; u += 1) {
+                for (int v = u + 1; v < live.length; v += 1) {
+                    if ((live[u][v >>> 6] & (1L << v)) != 0) {
+                        plugs.append('(').append(alpha.toChar(u))
+                            .append(alpha.toChar(v)).append(')');
+                    }
+                }
+            }
+            return new Stop(order, new String(setting), plugs.toString());
+        }
+
+        /** The menu tested. */
+        private final Menu _menu;
+
+        /** Rotor orders. */
+        private final List<String[]> _orders;
+
+        /** Count of settings tested. */
+        private final LongAdder _positions;
+
+        /** First pair. */
+        private final int _from;
+
+        /** One past the last pair. */
+        private final int _to;
+    }
+
+    /** Description of the machines tested. */
+    private final MachineSpec _spec;
+
+    /** Pool running the bombe. */
+    private final ForkJoinPool _pool;
+}
@@ -0,0 +1,84 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author Nitin Nazeer
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String CRIB = "WETTERVORHERSAGEBISKAYA";
+
+    private static final String PLUGS = "(HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return a four-slot, two-pawl spec using only the rotors NAMES. */
+    private MachineSpec spec(String... names) {
+        List<Rotor> rotors = new ArrayList<>();
+        for (Rotor r : navalRotors()) {
+            for (String name : names) {
+                if (r.name().equals(name)) {
+                    rotors.add(r);
+                }
+            }
+        }
+        return new MachineSpec(UPPER, 4, 2, rotors);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkFindsKey() {
+        MachineSpec spec = spec("B", "Beta", "I", "II");
+        String[] key = {"B", "Beta", "I", "II"};
+        Permutation plugs = new Permutation(PLUGS, UPPER);
+        String cipher = spec.session(key, "KQV", null, plugs).convert(CRIB);
+
+        Bombe.Result result = new Bombe(spec).run(CRIB, cipher);
+        assertEquals(2 * 26 * 26 * 26, result.positions());
+        boolean found = false;
+        for (Bombe.Stop stop : result.stops()) {
+            if (stop.setting().equals("KQV")
+                && stop.rotors()[2].equals("I")) {
+                found = true;
+                Permutation deduced = new Permutation(stop.plugboard(),
+                                                      UPPER);
+                for (int c = 0; c < UPPER.size(); c += 1) {
+                    if (deduced.permute(c) != c) {
+                        assertEquals(plugs.permute(c), deduced.permute(c));
+                    }
+                }
+            }
+        }
+        assertTrue("true setting not among stops", found);
+        assertTrue(result.stops().size() < 100);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkSelfEncryptingCrib() {
+        new Bombe(spec("B", "Beta", "I", "II")).run("ABC", "XBZ");
+    }
+    @Test
+    public void checkEmptyCrib() {
+        try {
+            new Bombe(spec("B", "Beta", "I", "II")).run("", "");
+            fail("empty crib accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("empty crib", excp.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static enigma.EnigmaException.*;
+
+/** Writes checkpoints to a file on a background thread, so that the
+ *  thread producing them never waits for the disk.  Only the latest
+ *  checkpoint matters: if several are submitted while one is being
+ *  written, the intermediate ones are skipped.  Each is written to a
+ *  temporary file that is then renamed over the checkpoint file, so the
+ *  file always holds one complete checkpoint.
+ *  @author Nitin Nazeer
+ */
+final class CheckpointWriter implements Closeable {
+
+    /** A writer keeping the latest checkpoint in FILE. */
+    CheckpointWriter(Path file) {
+        _file = file;
+        _temp = file.resolveSibling(file.getFileName() + ".tmp");
+        _thread = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "enigma-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Return the file I write. */
+    Path file() {
+        return _file;
+    }
+
+    /** Return the checkpoint last written to FILE, or null if there is
+     *  none. */
+    static byte[] read(Path file) {
+        try {
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("could not read %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Arrange for CHECKPOINT to be written, and return at once. */
+    void submit(byte[] checkpoint) {
+        checkFailure();
+        if (_pending.getAndSet(checkpoint) == null) {
+            _thread.execute(this::writePending);
+        }
+    }
+
+    /** Write the latest submitted checkpoint, if any. */
+    private void writePending() {
+        byte[] checkpoint = _pending.getAndSet(null);
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            Files.write(_temp, checkpoint);
+            Files.move(_temp, _file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            _written += 1;
+        } catch (IOException excp) {
+            _failure = excp.getMessage();
+        }
+    }
+
+    /** Throw an EnigmaException if a background write has failed. */
+    private void checkFailure() {
+        if (_failure != null) {
+            throw error("could not write checkpoint %s: %s", _file,
+                        _failure);
+        }
+    }
+
+    /** Return the number of checkpoints written so far. */
+    int written() {
+        return _written;
+    }
+
+    /** Delete the checkpoint file, after any pending write. */
+    void delete() {
+        drain();
+        try {
+            Files.deleteIfExists(_file);
+        } catch (IOException excp) {
+            throw error("could not delete %s: %s", _file,
+                        excp.getMessage());
+        }
+    }
+
+    /** Wait until every submitted checkpoint has been written. */
+    void drain() {
+        try {
+            _thread.submit(this::writePending).get();
+        } catch (Exception excp) {
+            throw error("checkpoint writer failed: %s", excp.getMessage());
+        }
+        checkFailure();
+    }
+
+    /** Write any pending checkpoint and stop my thread. */
+    @Override
+    public void close() {
+        drain();
+        _thread.shutdown();
+        try {
+            _thread.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** The checkpoint file. */
+    private final Path _file;
+
+    /** Where each checkpoint is written before being renamed. */
+    private final Path _temp;
+
+    /** Runs the writes. */
+    private final ExecutorService _thread;
+
+    /** Latest checkpoint not yet written, or null. */
+    private final AtomicReference<byte[]> _pending = new AtomicReference<>();
+
+    /** Number of checkpoints written. */
+    private volatile int _written;
+
+    /** Message of the last failed write, or null. */
+    private volatile String _failure;
+}
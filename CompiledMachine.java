@@ -0,0 +1,548 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+
+/** A flattened, configured machine, holding its rotor stack as
+ *  primitive tables so that converting a character touches no Rotor or
+ *  Permutation objects.  The tables come from RotorSpecs and are never
+ *  modified, so many CompiledMachines may share them; only the rotor
+ *  settings belong to one instance.  One is made either by compiling a
+ *  Machine, in which case it starts at that Machine's settings and then
+ *  advances independently of its rotors, or as a session of a
+ *  MachineSpec.
+ *  @author Nitin Nazeer
+ */
+final class CompiledMachine {
+
+    /** Largest number of rotor states remembered while seeking. */
+    private static final int MAX_SEEK_STATES = 1 << 20;
+
+    /** A compiled copy of MACHINE in its current state.  MACHINE must
+     *  have its rotors inserted. */
+    CompiledMachine(Machine machine) {
+        this(machine.alphabet(), specs(machine), settings(machine, false),
+             settings(machine, true), machine.plugboard());
+    }
+
+    /** A machine over ALPHABET whose slots hold the rotors described by
+     *  STACK, with settings POSN and ring settings RING (one per slot),
+     *  and plugboard PLUGBOARD (the identity if null).  Only the settings
+     *  are copied; the rotor tables are shared with STACK. */
+    CompiledMachine(Alphabet alphabet, RotorSpec[] stack, int[] posn,
+                    int[] ring, Permutation plugboard) {
+        _alphabet = alphabet;
+        _size = _alphabet.size();
+        _slots = stack.length;
+        _forward = new int[_slots][];
+        _inverse = new int[_slots][];
+        _notches = new boolean[_slots][];
+        _toNotch = new int[_slots][];
+        _rotates = new boolean[_slots];
+        _posn = new int[_slots];
+        _offset = new int[_slots];
+
+        for (int i = 0; i < _slots; i += 1) {
+            _forward[i] = stack[i].forward();
+            _inverse[i] = stack[i].inverse();
+            _rotates[i] = stack[i].rotates();
+            _notches[i] = stack[i].notches();
+            _toNotch[i] = stack[i].toNotch();
+            _posn[i] = Math.floorMod(posn[i], _size);
+            _offset[i] = Math.floorMod(posn[i] - ring[i], _size);
+        }
+
+        if (plugboard == null) {
+            plugboard = new Permutation("", _alphabet);
+        }
+        _plugForward = plugboard.forwardTable();
+        _plugInverse = plugboard.inverseTable();
+    }
+
+    /** Return descriptions of the rotors currently in MACHINE. */
+    private static RotorSpec[] specs(Machine machine) {
+        RotorSpec[] result = new RotorSpec[machine.totalCurrRotors()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = new RotorSpec(machine.getRotor(i));
+        }
+        return result;
+    }
+
+    /** Return the settings, or if RINGS the ring settings, of the rotors
+     *  currently in MACHINE. */
+    private static int[] settings(Machine machine, boolean rings) {
+        int[] result = new int[machine.totalCurrRotors()];
+        for (int i = 0; i < result.length; i += 1) {
+            Rotor r = machine.getRotor(i);
+            result[i] = rings ? r.ring() : r.posn();
+        }
+        return result;
+    }
+
+    /** A copy of OTHER in its current settings.  The two share their
+     *  (unchanging) tables, but advance independently. */
+    private CompiledMachine(CompiledMachine other) {
+        _alphabet = other._alphabet;
+        _size = other._size;
+        _slots = other._slots;
+        _forward = other._forward;
+        _inverse = other._inverse;
+        _notches = other._notches;
+        _toNotch = other._toNotch;
+        _rotates = other._rotates;
+        _plugForward = other._plugForward;
+        _plugInverse = other._plugInverse;
+        _posn = other._posn.clone();
+        _offset = other._offset.clone();
+    }
+
+    /** Return an independent copy of me in my current settings.  The
+     *  copy does not use my ScramblerCache, if any. */
+    CompiledMachine copy() {
+        return new CompiledMachine(this);
+    }
+
+    /** Look up the mapping through all rotors but the rightmost in
+     *  CACHE from now on, or stop doing so if CACHE is null.  CACHE may
+     *  be shared with other machines over the same rotors, but only by
+     *  one thread at a time. */
+    void useCache(ScramblerCache cache) {
+        if (cache != null) {
+            cache.bind(_forward);
+        }
+        _cache = _slots < 2 ? null : cache;
+        _inner = null;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotors in my stack. */
+    int numSlots() {
+        return _slots;
+    }
+
+    /** Return true iff the rotor in slot I has a ratchet. */
+    boolean rotates(int i) {
+        return _rotates[i];
+    }
+
+    /** Return the current setting of the rotor in slot I. */
+    int setting(int i) {
+        return _posn[i];
+    }
+
+    /** Put the rotor in slot I in setting POSN with ring setting RING,
+     *  both in the range 0..alphabet size - 1. */
+    void set(int i, int posn, int ring) {
+        _inner = null;
+        _posn[i] = posn;
+        _offset[i] = posn >= ring ? posn - ring : posn - ring + _size;
+    }
+
+    /** Advance the rotors that can advance, exactly as
+     *  Machine.advanceRotors does.  Slots are handled left to right:
+     *  the decision for slot I depends only on the notches of slots I
+     *  and I + 1, neither of which has moved yet. */
+    void advanceRotors() {
+        for (int i = 0; i < _slots; i += 1) {
+            if (advances(i)) {
+                if (Metrics.ENABLED) {
+                    count(i);
+                }
+                step(i, 1);
+            }
+        }
+    }
+
+    /** Record in Metrics that slot I is about to advance. */
+    private void count(int i) {
+        Metrics.advanced(i);
+        if (i > 0 && i < _slots - 1 && _rotates[i - 1]
+            && _notches[i][_posn[i]]) {
+            Metrics.doubleStepped();
+        }
+    }
+
+    /** Returns true iff slot I will advance on the next keypress. */
+    private boolean advances(int i) {
+        if (i == 0 || i == _slots - 1) {
+            return _rotates[i];
+        }
+        return (_rotates[i] && _notches[i + 1][_posn[i + 1]])
+            || (_rotates[i - 1] && _notches[i][_posn[i]]);
+    }
+
+    /** Move slot I forward by COUNT settings. */
+    private void step(int i, long count) {
+        if (i < _slots - 1) {
+            _inner = null;
+        }
+        int d = (int) (count % _size);
+        _posn[i] += d;
+        _offset[i] += d;
+        if (_posn[i] >= _size) {
+            _posn[i] -= _size;
+        }
+        if (_offset[i] >= _size) {
+            _offset[i] -= _size;
+        }
+    }
+
+    /** Put my rotors in the settings they would have after COUNT more
+     *  keypresses, without converting anything.  Runs of keypresses on
+     *  which only the rightmost rotor moves are skipped in one step, and
+     *  once the rotor settings repeat, whole periods are skipped too. */
+    void seek(long count) {
+        if (count < 0) {
+            throw error("cannot seek backwards");
+        }
+        HashMap<Long, Long> seen = stateBound() ? new HashMap<>() : null;
+        while (count > 0) {
+            if (seen != null) {
+                Long earlier = seen.putIfAbsent(state(), count);
+                if (earlier != null) {
+                    count %= earlier - count;
+                    seen = null;
+                    continue;
+                } else if (seen.size() > MAX_SEEK_STATES) {
+                    seen = null;
+                }
+            }
+            long quiet = quietSteps();
+            if (quiet == 0) {
+                advanceRotors();
+                count -= 1;
+            } else {
+                quiet = Math.min(quiet, count);
+                if (_rotates[_slots - 1]) {
+                    step(_slots - 1, quiet);
+                }
+                count -= quiet;
+            }
+        }
+    }
+
+    /** Returns the number of coming keypresses on which at most the
+     *  rightmost rotor moves, or Long.MAX_VALUE if no other rotor will
+     *  ever move. */
+    private long quietSteps() {
+        int last = _slots - 1;
+        for (int i = 0; i < last; i += 1) {
+            if (advances(i)) {
+                return 0;
+            }
+        }
+        if (_slots < 3 || !_rotates[last] || !_rotates[last - 1]
+            || _toNotch[last][_posn[last]] < 0) {
+            return Long.MAX_VALUE;
+        }
+        return _toNotch[last][_posn[last]];
+    }
+
+    /** Returns true iff every combination of rotor settings has a
+     *  distinct state(). */
+    boolean stateBound() {
+        return _slots * (64 - Long.numberOfLeadingZeros(_size)) < 63;
+    }
+
+    /** Returns my rotor settings packed into one number. */
+    long state() {
+        long result = 0;
+        for (int i = 0; i < _slots; i += 1) {
+            result = result * _size + _posn[i];
+        }
+        return result;
+    }
+
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1), after first advancing
+     *  the machine. */
+    int convert(int c) {
+        if (Metrics.ENABLED) {
+            Metrics.converted();
+        }
+        advanceRotors();
+        if (_cache == null) {
+            return scramble(c);
+        }
+        if (_inner == null) {
+            if (_scratch == null) {
+                _scratch = new int[_size];
+            }
+            _inner = _cache.table(this, _scratch);
+        }
+        int last = _slots - 1, off = _offset[last];
+        c = _forward[last][_plugForward[c] + off] - off;
+        c = _inner[c < 0 ? c + _size : c];
+        c = _inverse[last][c + off] - off;
+        return _plugInverse[c < 0 ? c + _size : c];
+    }
+
+    /** Returns a key identifying the offsets of all my rotors but the
+     *  rightmost, or -1 if they cannot be packed into a long. */
+    long innerState() {
+        if ((_slots - 1) * (64 - Long.numberOfLeadingZeros(_size)) >= 63) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = 0; i < _slots - 1; i += 1) {
+            result = result * _size + _offset[i];
+        }
+        return result;
+    }
+
+    /** Fill TABLE with the mapping of each contact entering my second
+     *  rotor from the right through it, the rotors to its left, the
+     *  reflector and back out, in my current settings. */
+    void composeInner(int[] table) {
+        for (int v = 0; v < _size; v += 1) {
+            int c = v;
+            for (int i = _slots - 2; i >= 0; i -= 1) {
+                int off = _offset[i];
+                c = _forward[i][c + off] - off;
+                if (c < 0) {
+                    c += _size;
+                }
+            }
+            for (int i = 1; i < _slots - 1; i += 1) {
+                int off = _offset[i];
+                c = _inverse[i][c + off] - off;
+                if (c < 0) {
+                    c += _size;
+                }
+            }
+            table[v] = c;
+        }
+    }
+
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1) in my current settings,
+     *  without advancing. */
+    int scramble(int c) {
+        c = _plugForward[c];
+        for (int i = _slots - 1; i >= 0; i -= 1) {
+            int off = _offset[i];
+            c = _forward[i][c + off] - off;
+            if (c < 0) {
+                c += _size;
+            }
+        }
+        for (int i = 1; i < _slots; i += 1) {
+            int off = _offset[i];
+            c = _inverse[i][c + off] - off;
+            if (c < 0) {
+                c += _size;
+            }
+        }
+        return _plugInverse[c];
+    }
+
+    /** Returns the conversion of character C, which must be in my
+     *  alphabet. */
+    char convert(char c) {
+        int k = _alphabet.toInt(c);
+        if (k < 0) {
+            throw error("character '%c' not in alphabet", c);
+        }
+        return _alphabet.toChar(convert(k));
+    }
+
+    /** Convert the LEN characters of SRC starting at OFF, writing the
+     *  results to DST starting at DSTOFF, and return the number written.
+     *  Characters not in my alphabet are skipped: they produce no output
+     *  and do not advance the rotors.  SRC and DST may be the same array
+     *  provided DSTOFF <= OFF. */
+    int convert(char[] src, int off, int len, char[] dst, int dstOff) {
+        int j = dstOff;
+        for (int i = off; i < off + len; i += 1) {
+            int k = _alphabet.toInt(src[i]);
+            if (k >= 0) {
+                dst[j] = _alphabet.toChar(convert(k));
+                j += 1;
+            }
+        }
+        return j - dstOff;
+    }
+
+    /** Convert the message text in the LEN characters of SRC starting
+     *  at OFF, writing the results to DST starting at DSTOFF in groups
+     *  of GROUP separated by single spaces, or ungrouped if GROUP is 0,
+     *  and return the number written.  Whitespace is skipped; any other
+     *  character not in my alphabet is an error.  DST must have room
+     *  for messageSpace(LEN, GROUP) characters.  SRC and DST may be the
+     *  same array provided GROUP is 0 and DSTOFF <= OFF. */
+    int convertMessage(char[] src, int off, int len, char[] dst,
+                       int dstOff, int group) {
+        int j = dstOff, count = 0;
+        for (int i = off; i < off + len; i += 1) {
+            char c = src[i];
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            int k = _alphabet.toInt(c);
+            if (k < 0) {
+                throw error("character '%c' not in alphabet", c);
+            }
+            if (count == group && group > 0) {
+                dst[j] = ' ';
+                j += 1;
+                count = 0;
+            }
+            dst[j] = _alphabet.toChar(convert(k));
+            j += 1;
+            count += 1;
+        }
+        return j - dstOff;
+    }
+
+    /** Returns the most characters convertMessage can write for LEN
+     *  characters of text in groups of GROUP. */
+    static int messageSpace(int len, int group) {
+        return group == 0 ? len : len + len / group;
+    }
+
+    /** Convert characters from IN, writing the results to OUT, until IN
+     *  is exhausted or OUT is full, skipping characters not in my
+     *  alphabet as for convert(char[], int, int, char[], int). */
+    void convert(CharBuffer in, CharBuffer out) {
+        if (in.hasArray() && out.hasArray()) {
+            char[] src = in.array(), dst = out.array();
+            int i = in.arrayOffset() + in.position(),
+                end = in.arrayOffset() + in.limit(),
+                j = out.arrayOffset() + out.position(),
+                full = out.arrayOffset() + out.limit();
+            for (; i < end && j < full; i += 1) {
+                int k = _alphabet.toInt(src[i]);
+                if (k >= 0) {
+                    dst[j] = _alphabet.toChar(convert(k));
+                    j += 1;
+                }
+            }
+            in.position(i - in.arrayOffset());
+            out.position(j - out.arrayOffset());
+        } else {
+            while (in.hasRemaining() && out.hasRemaining()) {
+                int k = _alphabet.toInt(in.get());
+                if (k >= 0) {
+                    out.put(_alphabet.toChar(convert(k)));
+                }
+            }
+        }
+    }
+
+    /** Convert the LEN bytes of DATA starting at OFF in place.  Each
+     *  byte B stands for the symbol whose code point is B & 0xff, as in
+     *  Alphabet.bytes(); bytes that are not in my alphabet are left
+     *  unchanged and do not advance the rotors.  My alphabet may contain
+     *  no code points above 0xff. */
+    void convert(byte[] data, int off, int len) {
+        checkBytes();
+        for (int i = off; i < off + len; i += 1) {
+            int k = _alphabet.indexOf(data[i] & 0xff);
+            if (k >= 0) {
+                data[i] = (byte) _alphabet.toCodePoint(convert(k));
+            }
+        }
+    }
+
+    /** Convert the remaining bytes of DATA in place, as for
+     *  convert(byte[], int, int), leaving its position at its limit. */
+    void convert(ByteBuffer data) {
+        checkBytes();
+        if (data.hasArray()) {
+            convert(data.array(), data.arrayOffset() + data.position(),
+                    data.remaining());
+        } else {
+            for (int i = data.position(); i < data.limit(); i += 1) {
+                int k = _alphabet.indexOf(data.get(i) & 0xff);
+                if (k >= 0) {
+                    data.put(i, (byte) _alphabet.toCodePoint(convert(k)));
+                }
+            }
+        }
+        data.position(data.limit());
+    }
+
+    /** Check that every symbol of my alphabet is a byte value. */
+    private void checkBytes() {
+        if (_alphabet.maxCodePoint() > 0xff) {
+            throw error("alphabet has symbols that are not bytes");
+        }
+    }
+
+    /** Convert the LEN code points of CODEPOINTS starting at OFF in
+     *  place.  Code points that are not in my alphabet are left unchanged
+     *  and do not advance the rotors. */
+    void convert(int[] codePoints, int off, int len) {
+        for (int i = off; i < off + len; i += 1) {
+            int k = _alphabet.indexOf(codePoints[i]);
+            if (k >= 0) {
+                codePoints[i] = _alphabet.toCodePoint(convert(k));
+            }
+        }
+    }
+
+    /** Returns the encoding/decoding of MSG, updating the state of
+     *  the rotors accordingly. */
+    String convert(String msg) {
+        char[] result = new char[msg.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = convert(msg.charAt(i));
+        }
+        return new String(result);
+    }
+
+    /** Alphabet of my machine. */
+    private final Alphabet _alphabet;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** Number of rotors, including the reflector. */
+    private final int _slots;
+
+    /** _forward[I] is the doubled forward table of the rotor in slot I. */
+    private final int[][] _forward;
+
+    /** _inverse[I] is the doubled inverse table of the rotor in slot I. */
+    private final int[][] _inverse;
+
+    /** _notches[I][P] is true iff slot I is at a notch in setting P. */
+    private final boolean[][] _notches;
+
+    /** _toNotch[I][P] is the number of steps from setting P of slot I
+     *  to its next notch, or -1 if it has none. */
+    private final int[][] _toNotch;
+
+    /** _rotates[I] is true iff the rotor in slot I has a ratchet. */
+    private final boolean[] _rotates;
+
+    /** Current setting of each slot. */
+    private final int[] _posn;
+
+    /** Setting minus ring setting of each slot, modulo alphabet size. */
+    private final int[] _offset;
+
+    /** Cache of composed inner tables, or null. */
+    private ScramblerCache _cache;
+
+    /** Composed table for my current inner settings, or null if it must
+     *  be looked up again. */
+    private int[] _inner;
+
+    /** Table my ScramblerCache composes into when my settings have no
+     *  key, or null if not yet needed. */
+    private int[] _scratch;
+
+    /** Forward table of the plugboard. */
+    private final int[] _plugForward;
+
+    /** Inverse table of the plugboard. */
+    private final int[] _plugInverse;
+}
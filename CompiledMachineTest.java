@@ -0,0 +1,305 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CompiledMachine class.
+ *  @author Nitin Nazeer
+ */
+public class CompiledMachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String[] STACK =
+        {"B", "Beta", "III", "IV", "I"};
+
+    /** Check that a compiled copy of a machine with SETTING and RINGS
+     *  converts MSG exactly as the machine itself does. */
+    private void checkEquivalent(String testId, String setting,
+                                 String rings, String msg) {
+        Machine reference = navalMachine(STACK, setting, rings,
+                                         "(HQ) (EX) (IP) (TR) (BY)");
+        CompiledMachine compiled = reference.compile();
+        assertEquals(testId, reference.convert(msg), compiled.convert(msg));
+        for (int i = 0; i < reference.totalCurrRotors(); i += 1) {
+            assertEquals(msg(testId, "setting of slot %d", i),
+                         reference.getRotor(i).setting(),
+                         compiled.setting(i));
+        }
+    }
+
+    /** Check that seeking COUNT keypresses from SETTING leaves the
+     *  rotors where COUNT conversions would. */
+    private void checkSeek(String testId, String setting, int count) {
+        Machine stepped = navalMachine(STACK, setting, null, "");
+        for (int i = 0; i < count; i += 1) {
+            stepped.advanceRotors();
+        }
+        CompiledMachine sought = navalMachine(STACK, setting, null, "")
+            .compile();
+        sought.seek(count);
+        for (int i = 0; i < stepped.totalCurrRotors(); i += 1) {
+            assertEquals(msg(testId, "slot %d after %d", i, count),
+                         stepped.getRotor(i).setting(), sought.setting(i));
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkScramblerCache() {
+        String expected = navalMachine(STACK, "AQEV", "BCDE", "")
+            .convert(HIAWATHA);
+        MachineSpec spec = new MachineSpec(UPPER, 5, 3, navalRotors());
+        for (int capacity : new int[] {1, 2, 1000}) {
+            ScramblerCache cache = new ScramblerCache(capacity);
+            for (int k = 0; k < 10; k += 1) {
+                CompiledMachine cached =
+                    spec.session(STACK, "AQEV", "BCDE", null);
+                cached.useCache(cache);
+                assertEquals(msg("cache", "capacity %d", capacity),
+                             expected, cached.convert(HIAWATHA));
+            }
+            assertTrue(cache.size() <= capacity);
+        }
+        ScramblerCache cache = new ScramblerCache(1000);
+        for (int k = 0; k < 10; k += 1) {
+            CompiledMachine cached =
+                spec.session(STACK, "AQEV", "BCDE", null);
+            cached.useCache(cache);
+            cached.convert(HIAWATHA);
+        }
+        assertEquals(9 * cache.misses(), cache.hits());
+    }
+
+    @Test
+    public void checkScramblerCacheShared() {
+        for (int movers : new int[] {2, 12}) {
+            Machine machine = tableMachine(UPPER, new Random(9), movers);
+            CompiledMachine first = machine.compile();
+            CompiledMachine second = first.copy();
+            for (int i = 1; i < second.numSlots(); i += 1) {
+                second.set(i, (7 * i) % UPPER.size(), 0);
+            }
+            CompiledMachine plain1 = first.copy(), plain2 = second.copy();
+            ScramblerCache cache = new ScramblerCache(4);
+            first.useCache(cache);
+            second.useCache(cache);
+            for (int k = 0; k < 2000; k += 1) {
+                int c = k % UPPER.size();
+                assertEquals(msg("shared", "first, %d movers", movers),
+                             plain1.convert(c), first.convert(c));
+                assertEquals(msg("shared", "second, %d movers", movers),
+                             plain2.convert(c), second.convert(c));
+            }
+        }
+    }
+
+    @Test
+    public void checkScramblerCacheAfterSeek() {
+        Machine reference = navalMachine(STACK, "AXLE", null, "");
+        CompiledMachine cached = reference.compile();
+        cached.useCache(ScramblerCache.withBudget(1 << 16, UPPER.size()));
+        cached.convert(HIAWATHA);
+        cached.seek(5000);
+        reference.seek(HIAWATHA.length() + 5000);
+        assertEquals(reference.convert(HIAWATHA), cached.convert(HIAWATHA));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkScramblerCacheOtherStack() {
+        ScramblerCache cache = new ScramblerCache(10);
+        navalMachine(STACK, "AAAA", null, "").compile().useCache(cache);
+        navalMachine(new String[] {"B", "Beta", "I", "II", "III"},
+                     "AAAA", null, "").compile().useCache(cache);
+    }
+
+    @Test
+    public void checkSeekShort() {
+        for (int n = 0; n < 700; n += 7) {
+            checkSeek("AAAA", "AAAA", n);
+            checkSeek("AAEU", "AAEU", n);
+            checkSeek("AAEV", "AAEV", n);
+            checkSeek("ZZZZ", "ZZZZ", n);
+        }
+    }
+
+    @Test
+    public void checkSeekPastPeriod() {
+        checkSeek("two periods", "AXLE", 2 * 16900 + 123);
+        checkSeek("double step", "AQEV", 3 * 16900 + 4567);
+    }
+
+    @Test
+    public void checkMachineSeek() {
+        Machine sought = navalMachine(STACK, "AXLE", null,
+                                      "(HQ) (EX) (IP) (TR) (BY)");
+        Machine stepped = navalMachine(STACK, "AXLE", null,
+                                       "(HQ) (EX) (IP) (TR) (BY)");
+        stepped.convert(HIAWATHA);
+        sought.seek(HIAWATHA.length());
+        assertEquals(stepped.convert(HIAWATHA), sought.convert(HIAWATHA));
+    }
+
+    @Test
+    public void checkHiawatha() {
+        checkEquivalent("AXLE", "AXLE", null, HIAWATHA);
+    }
+
+    @Test
+    public void checkDoubleStep() {
+        checkEquivalent("double step", "AAEU", null, HIAWATHA);
+        checkEquivalent("double step at notch", "AAEV", null, HIAWATHA);
+    }
+
+    @Test
+    public void checkRings() {
+        checkEquivalent("rings", "AXLE", "BCDE", HIAWATHA);
+        checkEquivalent("wrapped rings", "ZZZZ", "ZAYB", HIAWATHA);
+    }
+
+    @Test
+    public void checkLongMessage() {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 40; i += 1) {
+            msg.append(HIAWATHA);
+        }
+        checkEquivalent("long", "QWER", "MNOP", msg.toString());
+    }
+
+    @Test
+    public void checkBytesInPlace() {
+        Random random = new Random(17);
+        byte[] data = new byte[5000];
+        random.nextBytes(data);
+        byte[] original = data.clone();
+        Machine encrypt = tableMachine(Alphabet.bytes(), new Random(3));
+        Machine reference = tableMachine(Alphabet.bytes(), new Random(3));
+        encrypt.convert(data, 100, 4000);
+        for (int i = 0; i < data.length; i += 1) {
+            int expected = i < 100 || i >= 4100 ? original[i] & 0xff
+                : reference.convert(original[i] & 0xff);
+            assertEquals(msg("bytes", "at %d", i), expected, data[i] & 0xff);
+        }
+        assertEquals(reference.getRotor(3).setting(),
+                     encrypt.getRotor(3).setting());
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).position(100).limit(4100);
+        tableMachine(Alphabet.bytes(), new Random(3)).convert(buffer);
+        assertEquals(4100, buffer.position());
+        buffer.clear();
+        for (int i = 0; i < data.length; i += 1) {
+            assertEquals(original[i], buffer.get(i));
+        }
+    }
+
+    @Test
+    public void checkCodePointsInPlace() {
+        Alphabet alpha = Alphabet.ofCodePoints(
+            "\ud83d\ude00\ud83d\ude01\ud83d\ude02\ud83d\ude03AB");
+        assertEquals(6, alpha.size());
+        int[] text = "\ud83d\ude02A!\ud83d\ude00\ud83d\ude02B"
+            .codePoints().toArray();
+        int[] original = text.clone();
+        tableMachine(alpha, new Random(5)).convert(text, 0, text.length);
+        assertEquals('!', text[2]);
+        assertFalse(Arrays.equals(original, text));
+        tableMachine(alpha, new Random(5)).convert(text, 0, text.length);
+        assertArrayEquals(original, text);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadCharacter() {
+        navalMachine(STACK, "AXLE", null, "").compile().convert('a');
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadCharacterInString() {
+        navalMachine(STACK, "AXLE", null, "").compile().convert("AB C");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBytesNeedByteAlphabet() {
+        tableMachine(Alphabet.ofCodePoints("AB\u4e00\u4e01"), new Random(1))
+            .convert(new byte[1], 0, 1);
+    }
+
+    @Test
+    public void checkCharArrays() {
+        String text = "FROM his SHOULDER, HIAWATHA";
+        String letters = "FROMSHOULDERHIAWATHA";
+        String expected = navalMachine(STACK, "AXLE", null, "")
+            .convert(letters);
+        char[] buf = ("xx" + text).toCharArray();
+        Machine machine = navalMachine(STACK, "AXLE", null, "");
+        assertEquals(letters.length(),
+                     machine.convert(buf, 2, text.length(), buf, 0));
+        assertEquals(expected, new String(buf, 0, letters.length()));
+
+        char[] out = new char[30];
+        CompiledMachine compiled =
+            navalMachine(STACK, "AXLE", null, "").compile();
+        assertEquals(letters.length(), compiled.convert(
+            text.toCharArray(), 0, text.length(), out, 5));
+        assertEquals(expected, new String(out, 5, letters.length()));
+    }
+
+    @Test
+    public void checkCharBuffers() {
+        String text = "FROM his SHOULDER, HIAWATHA";
+        String expected = navalMachine(STACK, "AXLE", null, "")
+            .convert("FROMSHOULDERHIAWATHA");
+        CompiledMachine compiled =
+            navalMachine(STACK, "AXLE", null, "").compile();
+        CharBuffer in = CharBuffer.wrap(text.toCharArray());
+        CharBuffer out = CharBuffer.allocate(8);
+        StringBuilder result = new StringBuilder();
+        while (in.hasRemaining()) {
+            compiled.convert(in, out);
+            out.flip();
+            result.append(out);
+            out.clear();
+        }
+        assertEquals(expected, result.toString());
+
+        Machine machine = navalMachine(STACK, "AXLE", null, "");
+        in = CharBuffer.wrap(text);
+        out = CharBuffer.allocate(100);
+        machine.convert(in, out);
+        out.flip();
+        assertEquals(expected, out.toString());
+    }
+
+    @Test
+    public void checkConvertMessage() {
+        String text = " FROM HIS\tSHOULDERHIAWATHA ";
+        String expected = navalMachine(STACK, "AXLE", null, "")
+            .convert("FROMHISSHOULDERHIAWATHA");
+        char[] src = text.toCharArray();
+        char[] out = new char[CompiledMachine.messageSpace(src.length, 5)];
+        CompiledMachine compiled =
+            navalMachine(STACK, "AXLE", null, "").compile();
+        int n = compiled.convertMessage(src, 0, src.length, out, 0, 5);
+        assertEquals(expected.replaceAll("(.{5})(?=.)", "$1 "),
+                     new String(out, 0, n));
+
+        compiled = navalMachine(STACK, "AXLE", null, "").compile();
+        n = compiled.convertMessage(src, 0, src.length, src, 0, 0);
+        assertEquals(expected, new String(src, 0, n));
+    }
+
+}
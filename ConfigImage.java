@@ -0,0 +1,205 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** A compiled, binary form of a configuration file.  An image holds the
+ *  alphabet, the numbers of slots and pawls, and each rotor's name, kind,
+ *  notches and wiring as an index table, behind a header giving a format
+ *  version and a CRC-32 of the rest.  Loading an image maps the file and
+ *  reads the tables directly, with no cycle notation to parse, so it is
+ *  much quicker than reading the text form.  Main accepts either form
+ *  as its configuration; to make an image, run
+ *      java enigma.ConfigImage CONFIG IMAGE
+ *  @author Nitin Nazeer
+ */
+public final class ConfigImage {
+
+    /** Identifies an image file. */
+    private static final int MAGIC = 0x456e4367;
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    /** Bytes in the header: magic, version, payload length, checksum. */
+    private static final int HEADER = 16;
+
+    /** Compile the text configuration file ARGS[0] into the image file
+     *  ARGS[1]. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 2) {
+                throw error("usage: java enigma.ConfigImage CONFIG IMAGE");
+            }
+            write(Main.readConfigFile(args[0]), Paths.get(args[1]));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return true iff FILE exists and starts like an image. */
+    static boolean isImage(Path file) {
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                continue;
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Write an image of the configuration of MACHINE (its alphabet,
+     *  slots, pawls and available rotors) to FILE. */
+    static void write(Machine machine, Path file) {
+        Alphabet alpha = machine.alphabet();
+        int n = alpha.size();
+        ArrayList<Rotor> rotors = new ArrayList<>(machine.allRotors());
+        long bytes = 4L + 2L * n + 12;
+        for (Rotor r : rotors) {
+            bytes += 4L + 2L * r.name().length() + 2 + 4 + 2L * n + 4L * n;
+        }
+        if (bytes + HEADER > Integer.MAX_VALUE) {
+            throw error("configuration too large for an image");
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate((int) bytes);
+        putString(payload, alphabetString(alpha));
+        payload.putInt(machine.numRotors());
+        payload.putInt(machine.numPawls());
+        payload.putInt(rotors.size());
+        for (Rotor r : rotors) {
+            putString(payload, r.name());
+            payload.putChar(r.reflecting() ? 'R' : r.rotates() ? 'M' : 'N');
+            StringBuilder notches = new StringBuilder();
+            for (int k = 0; k < n; k += 1) {
+                if (r.atNotch(k)) {
+                    notches.append(alpha.toChar(k));
+                }
+            }
+            putString(payload, notches.toString());
+            payload.asIntBuffer().put(r.permutation().forwardTable());
+            payload.position(payload.position() + 4 * n);
+        }
+        payload.flip();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(payload.limit())
+            .putInt(checksum(payload));
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file,
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining() || payload.hasRemaining()) {
+                channel.write(new ByteBuffer[] { header, payload });
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Return a machine configured from the image in FILE. */
+    static Machine load(Path file) {
+        ByteBuffer image;
+        try (FileChannel channel = FileChannel.open(file)) {
+            long size = channel.size();
+            if (size < HEADER || size > Integer.MAX_VALUE) {
+                throw error("%s is not a configuration image", file);
+            }
+            image = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException excp) {
+            throw error("could not open %s", file);
+        }
+        if (image.getInt() != MAGIC) {
+            throw error("%s is not a configuration image", file);
+        }
+        int version = image.getInt();
+        if (version != VERSION) {
+            throw error("unsupported configuration image version %d",
+                        version);
+        }
+        int length = image.getInt();
+        int sum = image.getInt();
+        if (length != image.remaining()) {
+            throw error("configuration image truncated");
+        }
+        ByteBuffer payload = image.slice();
+        if (checksum(payload) != sum) {
+            throw error("configuration image checksum mismatch");
+        }
+
+        try {
+            Alphabet alpha = new Alphabet(getString(payload));
+            int n = alpha.size();
+            int numRotors = payload.getInt();
+            int numPawls = payload.getInt();
+            int count = payload.getInt();
+            ArrayList<Rotor> rotors = new ArrayList<>();
+            int[] table = new int[n];
+            for (int i = 0; i < count; i += 1) {
+                String name = getString(payload);
+                char kind = payload.getChar();
+                String notches = getString(payload);
+                payload.asIntBuffer().get(table);
+                payload.position(payload.position() + 4 * n);
+                Permutation perm = new Permutation(table, alpha);
+                if (kind == 'M') {
+                    rotors.add(new MovingRotor(name, perm, notches));
+                } else if (kind == 'N') {
+                    rotors.add(new FixedRotor(name, perm));
+                } else {
+                    rotors.add(new Reflector(name, perm));
+                }
+            }
+            return new Machine(alpha, numRotors, numPawls, rotors);
+        } catch (BufferUnderflowException | NegativeArraySizeException excp) {
+            throw error("configuration image truncated");
+        }
+    }
+
+    /** Return the characters of ALPHA, in order. */
+    private static String alphabetString(Alphabet alpha) {
+        char[] chars = new char[alpha.size()];
+        for (int i = 0; i < chars.length; i += 1) {
+            chars[i] = alpha.toChar(i);
+        }
+        return new String(chars);
+    }
+
+    /** Return the CRC-32 of the remaining bytes of DATA, leaving its
+     *  position unchanged. */
+    private static int checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /** Append S to OUT, preceded by its length. */
+    private static void putString(ByteBuffer out, String s) {
+        out.putInt(s.length());
+        for (int i = 0; i < s.length(); i += 1) {
+            out.putChar(s.charAt(i));
+        }
+    }
+
+    /** Return the next string from IN, as written by putString. */
+    private static String getString(ByteBuffer in) {
+        char[] chars = new char[in.getInt()];
+        for (int i = 0; i < chars.length; i += 1) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+}
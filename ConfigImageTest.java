@@ -0,0 +1,108 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ConfigImage class.
+ *  @author Nitin Nazeer
+ */
+public class ConfigImageTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+        + " 5 3\n"
+        + " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n";
+
+    private static final String INPUT =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+        + "FROM HIS SHOULDER HIAWATHA\n";
+
+    /** Return a temporary file holding TEXT. */
+    private Path file(String text) throws IOException {
+        Path result = Files.createTempFile("config", ".txt");
+        Files.write(result, text.getBytes(StandardCharsets.US_ASCII));
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRoundTrip() throws IOException {
+        Path text = file(CONFIG), image = file("");
+        try {
+            Machine original = Main.readConfigFile(text.toString());
+            ConfigImage.write(original, image);
+            assertTrue(ConfigImage.isImage(image));
+            assertFalse(ConfigImage.isImage(text));
+
+            Machine loaded = ConfigImage.load(image);
+            assertEquals(5, loaded.numRotors());
+            assertEquals(3, loaded.numPawls());
+            String[] rotors = {"B", "Beta", "III", "IV", "I"};
+            for (Machine m : new Machine[] {original, loaded}) {
+                m.insertRotors(rotors);
+                m.setRotors("AXLQ");
+                m.setPlugboard(new Permutation("(HQ) (EX)", UPPER));
+            }
+            assertEquals(original.convert(HIAWATHA),
+                         loaded.convert(HIAWATHA));
+        } finally {
+            Files.deleteIfExists(text);
+            Files.deleteIfExists(image);
+        }
+    }
+
+    @Test
+    public void checkMainAcceptsImage() throws IOException {
+        Path text = file(CONFIG), image = file(""), input = file(INPUT);
+        Path out1 = file(""), out2 = file("");
+        try {
+            ConfigImage.main(text.toString(), image.toString());
+            Main.main(text.toString(), input.toString(), out1.toString());
+            Main.main(image.toString(), input.toString(), out2.toString());
+            assertEquals(new String(Files.readAllBytes(out1)),
+                         new String(Files.readAllBytes(out2)));
+            assertTrue(Files.size(out2) > 0);
+        } finally {
+            for (Path p : new Path[] {text, image, input, out1, out2}) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkCorruptImage() throws IOException {
+        Path text = file(CONFIG), image = file("");
+        try {
+            ConfigImage.write(Main.readConfigFile(text.toString()), image);
+            byte[] bytes = Files.readAllBytes(image);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(image, bytes);
+            ConfigImage.load(image);
+        } finally {
+            Files.deleteIfExists(text);
+            Files.deleteIfExists(image);
+        }
+    }
+
+}
@@ -0,0 +1,399 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static enigma.EnigmaException.*;
+
+/** A long-running server that converts messages for clients on the same
+ *  host, so that many jobs can share one JVM and its parsed
+ *  configurations.  It listens on a loopback TCP port or a Unix domain
+ *  socket.  Each request names a configuration by its id and carries a
+ *  setting line in Main's format and a message; the reply is the
+ *  converted message with whitespace dropped, or an error.  Each
+ *  connection is served by its own thread, a virtual thread when the
+ *  JVM has them and a pooled platform thread otherwise, and each request
+ *  gets its own session, so connections never share rotor state.  The
+ *  server records the latency of every request in a LatencyHistogram.
+ *
+ *  Frames are written with DataOutputStream.  A request is an op byte;
+ *  for CONVERT it is followed by the configuration id and setting line
+ *  (each as writeUTF) and the message (an int byte count, then UTF-8).
+ *  A reply is a status byte followed by a text in the same form as the
+ *  message: the converted message or latency report if the status is
+ *  OK, and an error message otherwise.  A text longer than MAX_FRAME
+ *  bytes is refused with an error reply, after which the server closes
+ *  the connection.  To run a server, use
+ *      java enigma.EnigmaServer ADDRESS ID=CONFIG ...
+ *  where ADDRESS is a port number or the path of a Unix domain socket.
+ *  @author Nitin Nazeer
+ */
+public final class EnigmaServer implements Closeable {
+
+    /** Op byte of a conversion request. */
+    static final byte CONVERT = 1;
+
+    /** Op byte of a request for the latency report. */
+    static final byte STATS = 2;
+
+    /** Status byte of a successful reply. */
+    static final byte OK = 0;
+
+    /** Status byte of a failed request. */
+    static final byte FAILED = 1;
+
+    /** Largest number of bytes in a text frame. */
+    static final int MAX_FRAME = 1 << 24;
+
+    /** Start a server as described in the class comment, with ARGS[0]
+     *  the address and the rest of ARGS pairs ID=CONFIG naming
+     *  configuration files (in text or image form). */
+    public static void main(String... args) {
+        try {
+            if (args.length < 2) {
+                throw error("usage: java enigma.EnigmaServer ADDRESS "
+                            + "ID=CONFIG ...");
+            }
+            HashMap<String, MachineSpec> configs = new HashMap<>();
+            for (int i = 1; i < args.length; i += 1) {
+                int eq = args[i].indexOf('=');
+                if (eq <= 0) {
+                    throw error("bad configuration argument: %s", args[i]);
+                }
+                configs.put(args[i].substring(0, eq),
+                            loadConfig(args[i].substring(eq + 1)));
+            }
+            EnigmaServer server = new EnigmaServer(configs,
+                                                   address(args[0]));
+            System.out.printf("listening on %s%n", server.address());
+            server.serve();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the description of the configuration file NAME. */
+    static MachineSpec loadConfig(String name) {
+        if (ConfigImage.isImage(Paths.get(name))) {
+            return ConfigImage.load(Paths.get(name)).spec();
+        }
+        return Main.readConfigFile(name).spec();
+    }
+
+    /** Return the socket address denoted by NAME: a loopback port if it
+     *  is a number, and otherwise a Unix domain socket path. */
+    static SocketAddress address(String name) {
+        if (name.matches("\\d+")) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                         Integer.parseInt(name));
+        }
+        return UnixDomainSocketAddress.of(name);
+    }
+
+    /** A server converting with CONFIGS, a map from configuration ids
+     *  to their descriptions, bound to ADDRESS (a loopback port, 0 for
+     *  any, or a Unix domain socket). */
+    EnigmaServer(Map<String, MachineSpec> configs, SocketAddress address) {
+        for (Map.Entry<String, MachineSpec> e : configs.entrySet()) {
+            _encryptors.put(e.getKey(), new BatchEncryptor(e.getValue()));
+        }
+        try {
+            if (address instanceof UnixDomainSocketAddress) {
+                _channel = ServerSocketChannel.open(
+                    StandardProtocolFamily.UNIX);
+            } else {
+                _channel = ServerSocketChannel.open();
+            }
+            _channel.bind(address);
+        } catch (IOException excp) {
+            throw error("could not listen on %s: %s", address,
+                        excp.getMessage());
+        }
+        _handlers = handlers();
+    }
+
+    /** Return an executor running each task on a new virtual thread if
+     *  this JVM supports them, and otherwise on a cached daemon thread. */
+    static ExecutorService handlers() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "enigma-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** Return the address I am listening on. */
+    SocketAddress address() {
+        try {
+            return _channel.getLocalAddress();
+        } catch (IOException excp) {
+            throw error("server is closed");
+        }
+    }
+
+    /** Accept connections on a background daemon thread until I am
+     *  closed, and return at once. */
+    void start() {
+        Thread acceptor = new Thread(this::serve, "enigma-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** Accept connections on this thread until I am closed. */
+    void serve() {
+        try {
+            while (true) {
+                SocketChannel client = _channel.accept();
+                _handlers.execute(() -> handle(client));
+            }
+        } catch (ClosedChannelException excp) {
+            return;
+        } catch (IOException excp) {
+            throw error("could not accept: %s", excp.getMessage());
+        }
+    }
+
+    /** Serve the requests on CLIENT until it closes. */
+    private void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException excp) {
+                    return;
+                }
+                if (op == STATS) {
+                    out.writeByte(OK);
+                    writeText(out, report());
+                } else if (op == CONVERT) {
+                    String id = in.readUTF(), setting = in.readUTF();
+                    String message;
+                    try {
+                        message = readText(in);
+                    } catch (EnigmaException excp) {
+                        out.writeByte(FAILED);
+                        writeText(out, excp.getMessage());
+                        out.flush();
+                        return;
+                    }
+                    long start = System.nanoTime();
+                    String reply;
+                    byte status = OK;
+                    try {
+                        reply = convert(id, setting, message);
+                    } catch (EnigmaException excp) {
+                        status = FAILED;
+                        reply = excp.getMessage();
+                    } catch (RuntimeException excp) {
+                        System.err.printf("enigma-server: request failed: "
+                                          + "%s%n", excp);
+                        status = FAILED;
+                        reply = "internal error: " + excp;
+                    }
+                    record(System.nanoTime() - start);
+                    out.writeByte(status);
+                    writeText(out, reply);
+                } else {
+                    out.writeByte(FAILED);
+                    writeText(out, "unknown request");
+                    out.flush();
+                    return;
+                }
+                out.flush();
+            }
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Return the conversion of MESSAGE under setting line SETTING with
+     *  the configuration whose id is ID. */
+    String convert(String id, String setting, String message) {
+        BatchEncryptor encryptor = _encryptors.get(id);
+        if (encryptor == null) {
+            throw error("unknown configuration %s", id);
+        }
+        return encryptor.encrypt(setting, message);
+    }
+
+    /** Record a request that took NANOS nanoseconds. */
+    private void record(long nanos) {
+        _latency.record(nanos);
+    }
+
+    /** Return the number of conversion requests served. */
+    long requests() {
+        return _latency.count();
+    }
+
+    /** Return the latency in nanoseconds within which the fraction P of
+     *  requests were served, or 0 if there have been none. */
+    long percentile(double p) {
+        return _latency.percentile(p);
+    }
+
+    /** Return a one-line summary of my request latencies. */
+    String report() {
+        return String.format("requests=%d p50=%.1fus p99=%.1fus",
+                             requests(), percentile(0.50) / 1e3,
+                             percentile(0.99) / 1e3);
+    }
+
+    /** Stop accepting connections and release my socket. */
+    @Override
+    public void close() {
+        try {
+            SocketAddress address = _channel.getLocalAddress();
+            _channel.close();
+            if (address instanceof UnixDomainSocketAddress) {
+                Files.deleteIfExists(
+                    ((UnixDomainSocketAddress) address).getPath());
+            }
+        } catch (IOException excp) {
+            throw error("could not close server: %s", excp.getMessage());
+        } finally {
+            _handlers.shutdown();
+        }
+    }
+
+    /** Write TEXT to OUT as a byte count followed by UTF-8. */
+    static void writeText(DataOutputStream out, String text)
+        throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return a text written to IN by writeText.  A text longer than
+     *  MAX_FRAME bytes is an error, and is left unread. */
+    static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("bad frame length");
+        } else if (length > MAX_FRAME) {
+            throw error("frame of %d bytes exceeds limit of %d bytes",
+                        length, MAX_FRAME);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** A connection to an EnigmaServer.  A client may be used by one
+     *  thread at a time. */
+    static final class Client implements Closeable {
+
+        /** A client connected to the server at ADDRESS. */
+        Client(SocketAddress address) {
+            try {
+                _channel = SocketChannel.open(address);
+            } catch (IOException excp) {
+                throw error("could not connect to %s: %s", address,
+                            excp.getMessage());
+            }
+            _in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(_channel)));
+            _out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(_channel)));
+        }
+
+        /** Return the conversion of MESSAGE under setting line SETTING
+         *  with the server's configuration ID. */
+        String convert(String id, String setting, String message) {
+            try {
+                _out.writeByte(CONVERT);
+                _out.writeUTF(id);
+                _out.writeUTF(setting);
+                writeText(_out, message);
+                return reply();
+            } catch (IOException excp) {
+                throw error("request failed: %s", excp.getMessage());
+            }
+        }
+
+        /** Return the server's latency report. */
+        String stats() {
+            try {
+                _out.writeByte(STATS);
+                return reply();
+            } catch (IOException excp) {
+                throw error("request failed: %s", excp.getMessage());
+            }
+        }
+
+        /** Send my pending request and return its reply's text. */
+        private String reply() throws IOException {
+            _out.flush();
+            byte status = _in.readByte();
+            String text = readText(_in);
+            if (status != OK) {
+                throw error("%s", text);
+            }
+            return text;
+        }
+
+        @Override
+        public void close() {
+            try {
+                _channel.close();
+            } catch (IOException excp) {
+                throw error("could not close: %s", excp.getMessage());
+            }
+        }
+
+        /** Connection to the server. */
+        private final SocketChannel _channel;
+
+        /** Replies from the server. */
+        private final DataInputStream _in;
+
+        /** Requests to the server. */
+        private final DataOutputStream _out;
+    }
+
+    /** Converters for each configuration, by id. */
+    private final HashMap<String, BatchEncryptor> _encryptors =
+        new HashMap<>();
+
+    /** Listening socket. */
+    private final ServerSocketChannel _channel;
+
+    /** Runs connection handlers. */
+    private final ExecutorService _handlers;
+
+    /** Latencies of requests, in nanoseconds. */
+    private final LatencyHistogram _latency = new LatencyHistogram();
+}
@@ -0,0 +1,137 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the EnigmaServer class.
+ *  @author Nitin Nazeer
+ */
+public class EnigmaServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String[] STACK =
+        {"B", "Beta", "III", "IV", "I"};
+
+    private static final String SETTING =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return a server for the naval configuration with id "naval", on
+     *  an ephemeral loopback port, already started. */
+    private EnigmaServer server() {
+        HashMap<String, MachineSpec> configs = new HashMap<>();
+        configs.put("naval", new MachineSpec(UPPER, 5, 3, navalRotors()));
+        EnigmaServer server = new EnigmaServer(configs, new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), 0));
+        server.start();
+        return server;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkConvert() {
+        String expected = navalMachine(STACK, "AXLE", null,
+                                       "(HQ) (EX) (IP) (TR) (BY)")
+            .convert(HIAWATHA);
+        try (EnigmaServer server = server();
+             EnigmaServer.Client client =
+                 new EnigmaServer.Client(server.address())) {
+            for (int k = 0; k < 3; k += 1) {
+                assertEquals(expected,
+                             client.convert("naval", SETTING, HIAWATHA));
+            }
+            assertEquals(3, server.requests());
+            assertTrue(client.stats().startsWith("requests=3 p50="));
+            assertTrue(server.percentile(0.99) >= server.percentile(0.5));
+        }
+    }
+
+    @Test
+    public void checkConcurrentClients() throws InterruptedException {
+        String expected = navalMachine(STACK, "AXLE", null,
+                                       "(HQ) (EX) (IP) (TR) (BY)")
+            .convert(HIAWATHA);
+        try (EnigmaServer server = server()) {
+            List<Thread> threads = new ArrayList<>();
+            List<String> failures = new ArrayList<>();
+            for (int t = 0; t < 4; t += 1) {
+                Thread thread = new Thread(() -> {
+                    try (EnigmaServer.Client client =
+                             new EnigmaServer.Client(server.address())) {
+                        for (int k = 0; k < 25; k += 1) {
+                            if (!expected.equals(client.convert(
+                                    "naval", SETTING, HIAWATHA))) {
+                                synchronized (failures) {
+                                    failures.add("mismatch");
+                                }
+                            }
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(failures.isEmpty());
+            assertEquals(100, server.requests());
+        }
+    }
+
+    @Test
+    public void checkErrorsKeepConnection() {
+        try (EnigmaServer server = server();
+             EnigmaServer.Client client =
+                 new EnigmaServer.Client(server.address())) {
+            try {
+                client.convert("army", SETTING, "HELLO");
+                fail("unknown configuration accepted");
+            } catch (EnigmaException excp) {
+                assertEquals("unknown configuration army", excp.getMessage());
+            }
+            assertEquals(5, client.convert("naval", SETTING, "HEL LO")
+                         .length());
+        }
+    }
+
+    @Test
+    public void checkRefusesHugeFrame() throws IOException {
+        try (EnigmaServer server = server();
+             SocketChannel channel = SocketChannel.open(server.address())) {
+            DataOutputStream out =
+                new DataOutputStream(Channels.newOutputStream(channel));
+            DataInputStream in =
+                new DataInputStream(Channels.newInputStream(channel));
+            out.writeByte(EnigmaServer.CONVERT);
+            out.writeUTF("naval");
+            out.writeUTF(SETTING);
+            out.writeInt(Integer.MAX_VALUE);
+            out.flush();
+            assertEquals(EnigmaServer.FAILED, in.readByte());
+            assertTrue(EnigmaServer.readText(in).startsWith("frame of "));
+            assertEquals(-1, in.read());
+        }
+    }
+
+}
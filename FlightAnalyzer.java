@@ -0,0 +1,298 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.EventType;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static enigma.EnigmaException.*;
+
+/** Summarizes the FlightEvents in a Java Flight Recorder file: for each
+ *  phase, the number of events, their total, self, mean and longest
+ *  duration, and the characters converted.  Phases may nest (RotorParse
+ *  events fall within a ConfigParse).  An event's self time leaves out
+ *  the events nested within it on the same thread, and shares are of
+ *  the summed self time of the events recorded.  Events of a phase with
+ *  a threshold (such as SetUp and Convert under default settings) are
+ *  recorded only when slower than it, so such phases are flagged in the
+ *  summary: their counts and shares are understated.  To
+ *  record and summarize a run, use
+ *      java -XX:StartFlightRecording=filename=run.jfr enigma.Main ...
+ *      java enigma.FlightAnalyzer run.jfr
+ *  @author Nitin Nazeer
+ *  */
+public final class FlightAnalyzer {
+
+    /** Print a summary of the recording ARGS[0] on the standard
+     *  output. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 1) {
+                throw error("usage: java enigma.FlightAnalyzer FILE.jfr");
+            }
+            System.out.print(analyze(Paths.get(args[0])));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Time spent in one phase. */
+    static final class Phase {
+
+        /** A phase named NAME, with no events yet. */
+        Phase(String name) {
+            _name = name;
+        }
+
+        /** Add an event lasting NANOS nanoseconds that converted CHARS
+         *  characters. */
+        void add(long nanos, long chars) {
+            _count += 1;
+            _nanos += nanos;
+            _self += nanos;
+            _max = Math.max(_max, nanos);
+            _chars += chars;
+        }
+
+        /** Return my name, the event name without its "enigma."
+         *  prefix. */
+        String name() {
+            return _name;
+        }
+
+        /** Return the number of events. */
+        long count() {
+            return _count;
+        }
+
+        /** Return the total duration, in nanoseconds. */
+        long nanos() {
+            return _nanos;
+        }
+
+        /** Remove NANOS nanoseconds spent in an event nested within one
+         *  of mine from my self time. */
+        void nested(long nanos) {
+            _self -= nanos;
+        }
+
+        /** Return the total duration outside nested events, in
+         *  nanoseconds. */
+        long self() {
+            return _self;
+        }
+
+        /** Return the longest duration, in nanoseconds. */
+        long max() {
+            return _max;
+        }
+
+        /** Return the number of characters converted. */
+        long characters() {
+            return _chars;
+        }
+
+        /** Record that my events shorter than THRESHOLD were not
+         *  recorded. */
+        void setThreshold(String threshold) {
+            _threshold = threshold;
+        }
+
+        /** Return the threshold below which my events were not recorded,
+         *  or null if all were. */
+        String threshold() {
+            return _threshold;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %8d %12.3f %12.3f %12.1f %12.1f"
+                                 + " %12d", _name, _count, _nanos / 1e6,
+                                 _self / 1e6,
+                                 _count == 0 ? 0 : _nanos / 1e3 / _count,
+                                 _max / 1e3, _chars);
+        }
+
+        /** Name of the phase. */
+        private final String _name;
+
+        /** Number of events. */
+        private long _count;
+
+        /** Total duration. */
+        private long _nanos;
+
+        /** Total duration outside nested events. */
+        private long _self;
+
+        /** Longest duration. */
+        private long _max;
+
+        /** Characters converted. */
+        private long _chars;
+
+        /** Recording threshold, or null. */
+        private String _threshold;
+    }
+
+    /** One recorded event. */
+    private static final class Span {
+
+        /** An event of PHASE on thread THREAD, from START to END
+         *  nanoseconds. */
+        Span(Phase phase, long thread, long start, long end) {
+            _phase = phase;
+            _thread = thread;
+            _start = start;
+            _end = end;
+        }
+
+        /** Phase of the event. */
+        private final Phase _phase;
+
+        /** Id of the thread the event ran on. */
+        private final long _thread;
+
+        /** Start time. */
+        private final long _start;
+
+        /** End time. */
+        private final long _end;
+    }
+
+    /** Return the phases recorded in FILE, in order of decreasing self
+     *  time. */
+    static List<Phase> phases(Path file) {
+        Map<String, Phase> phases = new TreeMap<>();
+        List<Span> spans = new ArrayList<>();
+        Map<String, String> thresholds = defaultThresholds();
+        try (RecordingFile recording = new RecordingFile(file)) {
+            Map<Long, String> types = new HashMap<>();
+            for (EventType type : recording.readEventTypes()) {
+                types.put(type.getId(), type.getName());
+            }
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                String name = event.getEventType().getName();
+                if (name.equals("jdk.ActiveSetting")
+                    && event.getString("name").equals("threshold")
+                    && types.containsKey(event.getLong("id"))) {
+                    thresholds.put(types.get(event.getLong("id")),
+                                   event.getString("value"));
+                }
+                if (!name.startsWith("enigma.")) {
+                    continue;
+                }
+                long chars = event.hasField("messageLength")
+                    ? event.getInt("messageLength") : 0;
+                Phase phase =
+                    phases.computeIfAbsent(name.substring(7), Phase::new);
+                phase.add(event.getDuration().toNanos(), chars);
+                spans.add(new Span(phase, event.getThread() == null ? -1
+                                   : event.getThread().getJavaThreadId(),
+                                   nanos(event.getStartTime()),
+                                   nanos(event.getEndTime())));
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s: %s", file, excp.getMessage());
+        }
+        for (Map.Entry<String, String> e : thresholds.entrySet()) {
+            String value = e.getValue();
+            if (e.getKey().startsWith("enigma.") && value != null
+                && !value.startsWith("0 ")) {
+                phases.computeIfAbsent(e.getKey().substring(7), Phase::new)
+                    .setThreshold(value);
+            }
+        }
+        unnest(spans);
+        List<Phase> result = new ArrayList<>(phases.values());
+        Collections.sort(result,
+                         (a, b) -> Long.compare(b.self(), a.self()));
+        return result;
+    }
+
+    /** Return the default threshold of each of the FlightEvents, or
+     *  null for those without one, by event name.  A recording that
+     *  holds jdk.ActiveSetting events says which thresholds it used;
+     *  otherwise these are assumed. */
+    private static Map<String, String> defaultThresholds() {
+        Map<String, String> result = new HashMap<>();
+        for (Class<?> c : FlightEvents.class.getDeclaredClasses()) {
+            Name name = c.getAnnotation(Name.class);
+            Threshold threshold = c.getAnnotation(Threshold.class);
+            if (name != null) {
+                result.put(name.value(),
+                           threshold == null ? null : threshold.value());
+            }
+        }
+        return result;
+    }
+
+    /** Return TIME in nanoseconds since the epoch. */
+    private static long nanos(Instant time) {
+        return time.getEpochSecond() * 1_000_000_000L + time.getNano();
+    }
+
+    /** Remove the time of each of SPANS nested within another on the
+     *  same thread from the self time of the innermost enclosing one. */
+    private static void unnest(List<Span> spans) {
+        Collections.sort(spans, (a, b) -> a._start != b._start
+                         ? Long.compare(a._start, b._start)
+                         : Long.compare(b._end, a._end));
+        Map<Long, ArrayDeque<Span>> open = new HashMap<>();
+        for (Span span : spans) {
+            ArrayDeque<Span> stack =
+                open.computeIfAbsent(span._thread, t -> new ArrayDeque<>());
+            while (!stack.isEmpty() && stack.peek()._end <= span._start) {
+                stack.pop();
+            }
+            if (!stack.isEmpty() && stack.peek()._end >= span._end) {
+                stack.peek()._phase.nested(span._end - span._start);
+            }
+            stack.push(span);
+        }
+    }
+
+    /** Return a table summarizing the phases recorded in FILE. */
+    static String analyze(Path file) {
+        List<Phase> phases = phases(file);
+        long total = 0;
+        for (Phase p : phases) {
+            total += p.self();
+        }
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("%-12s %8s %12s %12s %12s %12s %12s"
+                                    + " %6s%n", "phase", "events",
+                                    "total ms", "self ms", "mean us",
+                                    "max us", "chars", "share"));
+        for (Phase p : phases) {
+            result.append(p).append(String.format(" %5.1f%%%n",
+                total == 0 ? 0 : 100.0 * p.self() / total));
+        }
+        for (Phase p : phases) {
+            if (p.threshold() != null) {
+                result.append(String.format("note: %s events shorter than"
+                                            + " %s were not recorded, so"
+                                            + " its counts and share are"
+                                            + " understated%n",
+                                            p.name(), p.threshold()));
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,133 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+
+/** The suite of all JUnit tests for FlightEvents and the FlightAnalyzer
+ *  class.
+ *  @author Nitin Nazeer
+ */
+public class FlightAnalyzerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+        + " 5 3\n"
+        + " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n";
+
+    private static final String INPUT =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+        + "FROM HIS SHOULDER HIAWATHA\n"
+        + "TOOK THE CAMERA OF ROSEWOOD\n";
+
+    /** Return a temporary file holding TEXT. */
+    private Path file(String text) throws IOException {
+        Path result = Files.createTempFile("flight", ".tmp");
+        Files.write(result, text.getBytes(StandardCharsets.US_ASCII));
+        return result;
+    }
+
+    /** Return the phase named NAME in PHASES, or null. */
+    private FlightAnalyzer.Phase find(List<FlightAnalyzer.Phase> phases,
+                                      String name) {
+        for (FlightAnalyzer.Phase p : phases) {
+            if (p.name().equals(name)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkPhases() throws IOException {
+        Path config = file(CONFIG), input = file(INPUT), output = file("");
+        Path jfr = file("");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"ConfigParse", "RotorParse",
+                                             "SetUp", "Convert"}) {
+                recording.enable("enigma." + name).withThreshold(null);
+            }
+            recording.enable("jdk.ActiveSetting");
+            recording.start();
+            Main.main(config.toString(), input.toString(),
+                      output.toString());
+            recording.stop();
+            recording.dump(jfr);
+
+            List<FlightAnalyzer.Phase> phases = FlightAnalyzer.phases(jfr);
+            assertEquals(1, find(phases, "ConfigParse").count());
+            assertEquals(5, find(phases, "RotorParse").count());
+            assertEquals(1, find(phases, "SetUp").count());
+            assertEquals(2, find(phases, "Convert").count());
+            assertEquals(INPUT.split("\n")[1].length()
+                         + INPUT.split("\n")[2].length(),
+                         find(phases, "Convert").characters());
+            FlightAnalyzer.Phase parse = find(phases, "ConfigParse");
+            assertEquals(parse.nanos()
+                         - find(phases, "RotorParse").nanos(),
+                         parse.self());
+            assertEquals(find(phases, "Convert").nanos(),
+                         find(phases, "Convert").self());
+            String report = FlightAnalyzer.analyze(jfr);
+            assertTrue(report.startsWith("phase"));
+            assertTrue(report.contains("RotorParse"));
+            assertFalse(report.contains("note:"));
+        } finally {
+            for (Path p : new Path[] {config, input, output, jfr}) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    @Test
+    public void checkThresholdsNoted() throws IOException {
+        Path config = file(CONFIG), input = file(INPUT), output = file("");
+        Path jfr = file("");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"ConfigParse", "RotorParse",
+                                             "SetUp", "Convert"}) {
+                recording.enable("enigma." + name);
+            }
+            recording.start();
+            Main.main(config.toString(), input.toString(),
+                      output.toString());
+            recording.stop();
+            recording.dump(jfr);
+
+            List<FlightAnalyzer.Phase> phases = FlightAnalyzer.phases(jfr);
+            assertEquals("100 us", find(phases, "Convert").threshold());
+            assertEquals("20 us", find(phases, "SetUp").threshold());
+            assertNull(find(phases, "ConfigParse").threshold());
+            String report = FlightAnalyzer.analyze(jfr);
+            assertTrue(report.contains("note: Convert events shorter than"
+                                       + " 100 us were not recorded"));
+        } finally {
+            for (Path p : new Path[] {config, input, output, jfr}) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/** Java Flight Recorder events marking the phases of a run: reading the
+ *  configuration and each rotor in it, parsing setting lines, and
+ *  converting messages.  Each event carries its duration (as every JFR
+ *  event does) and the sizes and rotor names needed to tell slow phases
+ *  apart.  None records a stack trace, and the per-message events have
+ *  default thresholds so that a recording with default settings keeps
+ *  only the slow ones; set their thresholds to 0 ms to account for every
+ *  message.  When no recording is running, each event costs one
+ *  allocation the JIT usually removes and one flag test; per-message
+ *  events are not allocated at all unless convertEnabled().
+ *  FlightAnalyzer summarizes a recording.
+ *  @author Nitin Nazeer
+ */
+final class FlightEvents {
+
+    /** Category shared by all my events. */
+    static final String CATEGORY = "Enigma";
+
+    /** A Convert event never committed, asked whether its type is
+     *  enabled. */
+    private static final Convert CONVERT = new Convert();
+
+    /** Not instantiable. */
+    private FlightEvents() {
+    }
+
+    /** Reading a configuration. */
+    @Name("enigma.ConfigParse")
+    @Label("Configuration Parse")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ConfigParse extends Event {
+
+        /** Whether the configuration was text or a compiled image. */
+        @Label("Format")
+        String format;
+
+        /** Size of the alphabet read. */
+        @Label("Alphabet Size")
+        int alphabetSize;
+
+        /** Number of rotors read. */
+        @Label("Rotors")
+        int rotors;
+    }
+
+    /** Reading one rotor description. */
+    @Name("enigma.RotorParse")
+    @Label("Rotor Parse")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class RotorParse extends Event {
+
+        /** Name of the rotor. */
+        @Label("Rotor")
+        String rotor;
+
+        /** Size of the alphabet. */
+        @Label("Alphabet Size")
+        int alphabetSize;
+    }
+
+    /** Parsing a setting line and setting up the machine. */
+    @Name("enigma.SetUp")
+    @Label("Set Up")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Threshold("20 us")
+    static final class SetUp extends Event {
+
+        /** Names of the rotors inserted, separated by spaces. */
+        @Label("Rotors")
+        String rotors;
+
+        /** Size of the alphabet. */
+        @Label("Alphabet Size")
+        int alphabetSize;
+    }
+
+    /** Converting one message or message line. */
+    @Name("enigma.Convert")
+    @Label("Convert")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Threshold("100 us")
+    static final class Convert extends Event {
+
+        /** Number of characters in the message. */
+        @Label("Message Length")
+        @Description("Characters in the message, including whitespace")
+        int messageLength;
+
+        /** Names of the rotors in use, separated by spaces. */
+        @Label("Rotors")
+        String rotors;
+
+        /** Size of the alphabet. */
+        @Label("Alphabet Size")
+        int alphabetSize;
+    }
+
+    /** Returns true iff Convert events are being recorded. */
+    static boolean convertEnabled() {
+        return CONVERT.isEnabled();
+    }
+
+    /** Return the names of the rotors in M, separated by spaces. */
+    static String rotorNames(Machine M) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < M.totalCurrRotors(); i += 1) {
+            if (i > 0) {
+                result.append(' ');
+            }
+            result.append(M.getRotor(i).name());
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,394 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.*;
+
+/** A brute-force key search.  Given ciphertext and a known plugboard, it
+ *  tries every rotor order a MachineSpec allows, every combination of
+ *  rotor settings and, optionally, ring settings of the rightmost rotors,
+ *  scoring each trial decryption.  The key space is split into one task
+ *  per rotor order and leftmost setting, run on a ForkJoinPool so idle
+ *  workers steal remaining tasks.  Each task makes one session and one
+ *  scratch buffer and then reuses them for every key it tries, so the
+ *  inner loop allocates nothing.
+ *  @author Nitin Nazeer
+ */
+final class KeySearch {
+
+    /** A search over the machines described by SPEC, running on POOL. */
+    KeySearch(MachineSpec spec, ForkJoinPool pool) {
+        _spec = spec;
+        _pool = pool;
+    }
+
+    /** A search over the machines described by SPEC, running on the
+     *  common pool. */
+    KeySearch(MachineSpec spec) {
+        this(spec, ForkJoinPool.commonPool());
+    }
+
+    /** A measure of how much a trial decryption looks like plaintext.
+     *  An instance is used by one thread at a time and may keep scratch
+     *  space between calls. */
+    interface Scorer {
+        /** Return the score of the first LEN indices of TEXT; larger is
+         *  more plausible. */
+        double score(int[] text, int len);
+    }
+
+    /** Return a source of scorers using the index of coincidence over an
+     *  alphabet of N symbols. */
+    static Supplier<Scorer> indexOfCoincidence(int n) {
+        return () -> new Scorer() {
+            private final int[] _counts = new int[n];
+
+            @Override
+            public double score(int[] text, int len) {
+                Arrays.fill(_counts, 0);
+                for (int i = 0; i < len; i += 1) {
+                    _counts[text[i]] += 1;
+                }
+                long sum = 0;
+                for (int c : _counts) {
+                    sum += (long) c * (c - 1);
+                }
+                return len < 2 ? 0 : (double) sum / ((long) len * (len - 1));
+            }
+        };
+    }
+
+    /** Return a source of scorers summing the log frequencies of the
+     *  bigrams of CORPUS, whose characters outside ALPHA are ignored. */
+    static Supplier<Scorer> bigrams(String corpus, Alphabet alpha) {
+        int n = alpha.size();
+        double[] counts = new double[n * n];
+        int prev = -1;
+        double total = 0;
+        for (int i = 0; i < corpus.length(); i += 1) {
+            int k = alpha.toInt(corpus.charAt(i));
+            if (k < 0) {
+                continue;
+            }
+            if (prev >= 0) {
+                counts[prev * n + k] += 1;
+                total += 1;
+            }
+            prev = k;
+        }
+        double[] logs = new double[n * n];
+        for (int i = 0; i < logs.length; i += 1) {
+            logs[i] = Math.log((counts[i] + 0.01) / (total + 0.01 * n * n));
+        }
+        Scorer scorer = (text, len) -> {
+            double sum = 0;
+            for (int i = 1; i < len; i += 1) {
+                sum += logs[text[i - 1] * n + text[i]];
+            }
+            return sum;
+        };
+        return () -> scorer;
+    }
+
+    /** A key found by the search. */
+    static final class Candidate implements Comparable<Candidate> {
+
+        /** A candidate using ROTORS in SETTING with RINGS, scoring
+         *  SCORE. */
+        Candidate(String[] rotors, String setting, String rings,
+                  double score) {
+            _rotors = rotors;
+            _setting = setting;
+            _rings = rings;
+            _score = score;
+        }
+
+        /** Return the rotor names, reflector first. */
+        String[] rotors() {
+            return _rotors;
+        }
+
+        /** Return the rotor settings. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return the ring settings. */
+        String rings() {
+            return _rings;
+        }
+
+        /** Return my score. */
+        double score() {
+            return _score;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(_score, other._score);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("* %s %s %s  (%.5f)",
+                                 String.join(" ", _rotors), _setting,
+                                 _rings, _score);
+        }
+
+        /** Rotor names. */
+        private final String[] _rotors;
+
+        /** Rotor settings. */
+        private final String _setting;
+
+        /** Ring settings. */
+        private final String _rings;
+
+        /** Score. */
+        private final double _score;
+    }
+
+    /** Return the BEST highest-scoring keys for CIPHERTEXT, best first,
+     *  trying every rotor order and setting and the ring settings of the
+     *  rightmost RINGSLOTS rotors (the others' rings are 0), with
+     *  plugboard PLUGBOARD (the identity if null), and scoring trial
+     *  decryptions with scorers from SCORERS.  Whitespace in CIPHERTEXT
+     *  is ignored.  BEST must be at least 1. */
+    List<Candidate> search(String ciphertext, Permutation plugboard,
+                           int ringSlots, int best,
+                           Supplier<Scorer> scorers) {
+        int slots = _spec.numRotors();
+        if (ringSlots < 0 || ringSlots > slots - 1) {
+            throw error("bad number of ring slots");
+        } else if (best < 1) {
+            throw error("must keep at least one key");
+        }
+        int[] cipher = indices(ciphertext);
+        List<String[]> orders = orders();
+        Search root = new Search(new Job(cipher, plugboard, ringSlots, best,
+                                         scorers, orders),
+                                 0, orders.size() * _spec.alphabet().size());
+        List<Candidate> result = _pool.invoke(root);
+        Collections.reverse(result);
+        return result;
+    }
+
+    /** Return the number of keys tried so far. */
+    long keysTried() {
+        return _tried.sum();
+    }
+
+    /** Return the indices of the non-whitespace characters of TEXT. */
+    private int[] indices(String text) {
+        Alphabet alpha = _spec.alphabet();
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                result[n] = alpha.toInt(c);
+                if (result[n] < 0) {
+                    throw error("character '%c' not in alphabet", c);
+                }
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return every assignment of distinct rotors to my spec's slots: a
+     *  reflector, then non-moving rotors, then moving rotors. */
+    List<String[]> orders() {
+        List<String[]> result = new ArrayList<>();
+        fill(new String[_spec.numRotors()], 0, result);
+        return result;
+    }
+
+    /** Add to RESULT every completion of the assignment ORDER, whose
+     *  first SLOT slots are filled. */
+    private void fill(String[] order, int slot, List<String[]> result) {
+        if (slot == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        boolean moving = slot >= _spec.numRotors() - _spec.numPawls();
+        for (String name : _spec.rotorNames()) {
+            RotorSpec r = _spec.rotor(name);
+            boolean fits = slot == 0 ? r.reflecting()
+                : !r.reflecting() && r.rotates() == moving;
+            for (int i = 0; fits && i < slot; i += 1) {
+                fits = !order[i].equals(name);
+            }
+            if (fits) {
+                order[slot] = name;
+                fill(order, slot + 1, result);
+            }
+        }
+    }
+
+    /** The parameters shared by all tasks of one search. */
+    private static final class Job {
+
+        /** A search of CIPHER with PLUGBOARD over ORDERS, keeping BEST
+         *  candidates, varying RINGSLOTS rings, scored by SCORERS. */
+        Job(int[] cipher, Permutation plugboard, int ringSlots, int best,
+            Supplier<Scorer> scorers, List<String[]> orders) {
+            this.cipher = cipher;
+            this.plugboard = plugboard;
+            this.ringSlots = ringSlots;
+            this.best = best;
+            this.scorers = scorers;
+            this.orders = orders;
+        }
+
+        /** Ciphertext indices. */
+        final int[] cipher;
+
+        /** Plugboard, or null. */
+        final Permutation plugboard;
+
+        /** Number of rightmost rotors whose rings are varied. */
+        final int ringSlots;
+
+        /** Number of candidates to keep. */
+        final int best;
+
+        /** Source of scorers. */
+        final Supplier<Scorer> scorers;
+
+        /** Rotor orders to try. */
+        final List<String[]> orders;
+    }
+
+    /** A task searching a range of (rotor order, leftmost setting) pairs,
+     *  returning its best candidates, worst first. */
+    private final class Search extends RecursiveTask<List<Candidate>> {
+
+        /** A task for pairs FROM..TO-1 of JOB. */
+        Search(Job job, int from, int to) {
+            _job = job;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected List<Candidate> compute() {
+            if (_to - _from > 1) {
+                int mid = (_from + _to) >>> 1;
+                Search left = new Search(_job, _from, mid);
+                left.fork();
+                List<Candidate> right =
+                    new Search(_job, mid, _to).compute();
+                return merge(left.join(), right);
+            }
+            int n = _spec.alphabet().size();
+            return searchLeaf(_job.orders.get(_from / n), _from % n);
+        }
+
+        /** Return the best candidates using ORDER with the leftmost
+         *  rotor in setting FIRST, worst first. */
+        private List<Candidate> searchLeaf(String[] order, int first) {
+            int n = _spec.alphabet().size();
+            int slots = order.length;
+            CompiledMachine m = _spec.session(order, null, null,
+                                              _job.plugboard);
+            Scorer scorer = _job.scorers.get();
+            int[] cipher = _job.cipher;
+            int[] plain = new int[cipher.length];
+            int[] posn = new int[slots];
+            int[] ring = new int[slots];
+            posn[1] = first;
+            int ringStart = slots - _job.ringSlots;
+            ArrayList<Candidate> kept = new ArrayList<>();
+            double threshold = Double.NEGATIVE_INFINITY;
+            long tried = 0;
+
+            do {
+                for (int i = 1; i < slots; i += 1) {
+                    m.set(i, posn[i], ring[i]);
+                }
+                for (int i = 0; i < cipher.length; i += 1) {
+                    plain[i] = m.convert(cipher[i]);
+                }
+                double score = scorer.score(plain, cipher.length);
+                tried += 1;
+                if (kept.size() < _job.best || score > threshold) {
+                    kept.add(candidate(order, posn, ring, score));
+                    Collections.sort(kept);
+                    if (kept.size() > _job.best) {
+                        kept.remove(0);
+                    }
+                    threshold = kept.get(0).score();
+                }
+            } while (next(posn, 2, slots, n) || next(ring, ringStart,
+                                                      slots, n));
+            _tried.add(tried);
+            return kept;
+        }
+
+        /** Return the BEST candidates of A and B, worst first. */
+        private List<Candidate> merge(List<Candidate> a,
+                                      List<Candidate> b) {
+            ArrayList<Candidate> all = new ArrayList<>(a);
+            all.addAll(b);
+            Collections.sort(all);
+            return new ArrayList<>(all.subList(Math.max(0, all.size()
+                                                        - _job.best),
+                                               all.size()));
+        }
+
+        /** The search. */
+        private final Job _job;
+
+        /** First pair. */
+        private final int _from;
+
+        /** One past the last pair. */
+        private final int _to;
+    }
+
+    /** Advance the odometer formed by DIGITS[FROM..TO-1], each in base N,
+     *  least significant last.  Returns false, leaving all those digits
+     *  0, when it wraps around. */
+    static boolean next(int[] digits, int from, int to, int n) {
+        for (int i = to - 1; i >= from; i -= 1) {
+            digits[i] += 1;
+            if (digits[i] < n) {
+                return true;
+            }
+            digits[i] = 0;
+        }
+        return false;
+    }
+
+    /** Return a candidate for ORDER in settings POSN with rings RING,
+     *  scoring SCORE. */
+    private Candidate candidate(String[] order, int[] posn, int[] ring,
+                                double score) {
+        Alphabet alpha = _spec.alphabet();
+        char[] setting = new char[posn.length - 1];
+        char[] rings = new char[posn.length - 1];
+        for (int i = 1; i < posn.length; i += 1) {
+            setting[i - 1] = alpha.toChar(posn[i]);
+            rings[i - 1] = alpha.toChar(ring[i]);
+        }
+        return new Candidate(order, new String(setting), new String(rings),
+                             score);
+    }
+
+    /** Description of the machines searched. */
+    private final MachineSpec _spec;
+
+    /** Pool running the search. */
+    private final ForkJoinPool _pool;
+
+    /** Number of keys tried. */
+    private final LongAdder _tried = new LongAdder();
+}
@@ -0,0 +1,90 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeySearch class.
+ *  @author Nitin Nazeer
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a four-slot, two-pawl spec using only the rotors NAMES. */
+    private MachineSpec spec(String... names) {
+        List<Rotor> rotors = new ArrayList<>();
+        for (Rotor r : navalRotors()) {
+            for (String name : names) {
+                if (r.name().equals(name)) {
+                    rotors.add(r);
+                }
+            }
+        }
+        return new MachineSpec(UPPER, 4, 2, rotors);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkOrders() {
+        KeySearch search = new KeySearch(spec("B", "C", "Beta", "Gamma",
+                                              "I", "II", "III"));
+        List<String[]> orders = search.orders();
+        assertEquals(2 * 2 * 3 * 2, orders.size());
+        for (String[] order : orders) {
+            assertTrue(order[0].equals("B") || order[0].equals("C"));
+            assertFalse(order[2].equals(order[3]));
+        }
+    }
+
+    @Test
+    public void checkRecoversKey() {
+        MachineSpec spec = spec("B", "Beta", "I", "II");
+        String[] key = {"B", "Beta", "II", "I"};
+        Permutation plugs = new Permutation("(HQ) (EX)", UPPER);
+        String cipher = spec.session(key, "DQR", null, plugs)
+            .convert(HIAWATHA);
+
+        KeySearch search = new KeySearch(spec);
+        List<KeySearch.Candidate> found =
+            search.search(cipher, plugs, 0, 3,
+                          KeySearch.indexOfCoincidence(UPPER.size()));
+        assertEquals(3, found.size());
+        assertArrayEquals(key, found.get(0).rotors());
+        assertEquals("DQR", found.get(0).setting());
+        assertTrue(found.get(0).score() >= found.get(1).score());
+        assertEquals(2 * 26 * 26 * 26, search.keysTried());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkKeepsAtLeastOne() {
+        new KeySearch(spec("B", "Beta", "I", "II"))
+            .search(HIAWATHA, null, 0, 0,
+                    KeySearch.indexOfCoincidence(UPPER.size()));
+    }
+
+    @Test
+    public void checkBigramScorer() {
+        KeySearch.Scorer scorer =
+            KeySearch.bigrams(HIAWATHA, UPPER).get();
+        int[] english = new int[HIAWATHA.length()];
+        int[] noise = new int[HIAWATHA.length()];
+        for (int i = 0; i < english.length; i += 1) {
+            english[i] = UPPER.toInt(HIAWATHA.charAt(i));
+            noise[i] = (i * 7) % 26;
+        }
+        assertTrue(scorer.score(english, english.length)
+                   > scorer.score(noise, noise.length));
+    }
+}
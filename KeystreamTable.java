@@ -0,0 +1,251 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** The complete keystream of one machine setup, precomputed.  A
+ *  machine's rotor settings run through a short lead-in and then repeat
+ *  with a period no larger than the product of its moving rotors' sizes,
+ *  so the substitution applied at every keypress is one of a bounded set
+ *  of tables.  A KeystreamTable holds all of them, one after another, so
+ *  converting a character is a single lookup at (keypress, character).
+ *  The tables live in a direct buffer or a memory-mapped file, and
+ *  building them is refused when they would exceed a memory budget.
+ *  The lead-in and period are found by Brent's cycle detection on the
+ *  rotor settings, so nothing but the tables themselves is stored.
+ *  @author Nitin Nazeer
+ *  */
+final class KeystreamTable {
+
+    /** A table over an alphabet of SIZE symbols, with LEADIN tables
+     *  before a cycle of PERIOD tables, stored in TABLES with WIDTH bytes
+     *  per entry. */
+    private KeystreamTable(Alphabet alphabet, int leadIn, int period,
+                           ByteBuffer tables, int width) {
+        _alphabet = alphabet;
+        _size = alphabet.size();
+        _leadIn = leadIn;
+        _period = period;
+        _tables = tables;
+        _width = width;
+    }
+
+    /** Return an upper bound on the bytes needed to hold the keystream
+     *  of M, or Long.MAX_VALUE if it is too large to count. */
+    static long estimateBytes(CompiledMachine m) {
+        long n = m.alphabet().size();
+        long states = 1;
+        for (int i = 0; i < m.numSlots(); i += 1) {
+            if (m.rotates(i)) {
+                if (states > Long.MAX_VALUE / n) {
+                    return Long.MAX_VALUE;
+                }
+                states *= n;
+            }
+        }
+        long perTable = n * width(m.alphabet().size());
+        return states > Long.MAX_VALUE / perTable ? Long.MAX_VALUE
+            : states * perTable;
+    }
+
+    /** Return the keystream of M from its current settings, held in a
+     *  direct buffer.  Throws an EnigmaException if estimateBytes(M)
+     *  exceeds BUDGET bytes.  M is not changed. */
+    static KeystreamTable build(CompiledMachine m, long budget) {
+        long bytes = checkBudget(m, budget);
+        return fill(m, ByteBuffer.allocateDirect((int) bytes));
+    }
+
+    /** Return the keystream of M from its current settings, held in the
+     *  file FILE, which is created or overwritten and memory-mapped.
+     *  Throws an EnigmaException if estimateBytes(M) exceeds BUDGET
+     *  bytes.  M is not changed. */
+    static KeystreamTable build(CompiledMachine m, long budget, Path file) {
+        long bytes = checkBudget(m, budget);
+        try (FileChannel channel = FileChannel.open(file,
+                 StandardOpenOption.CREATE, StandardOpenOption.READ,
+                 StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            return fill(m, channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                       bytes));
+        } catch (IOException excp) {
+            throw error("could not map %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Return estimateBytes(M), after checking that it is within BUDGET
+     *  and can be held in one buffer. */
+    private static long checkBudget(CompiledMachine m, long budget) {
+        long bytes = estimateBytes(m);
+        if (bytes > budget) {
+            throw error("keystream table needs up to %d bytes, over the "
+                        + "budget of %d", bytes, budget);
+        } else if (bytes > Integer.MAX_VALUE || !m.stateBound()) {
+            throw error("keystream table too large to hold in one buffer");
+        }
+        return bytes;
+    }
+
+    /** Return the number of bytes per entry for an alphabet of SIZE
+     *  symbols. */
+    private static int width(int size) {
+        return size <= 256 ? 1 : size <= 65536 ? 2 : 4;
+    }
+
+    /** Return the keystream of a copy of M, written into TABLES. */
+    private static KeystreamTable fill(CompiledMachine m, ByteBuffer tables) {
+        m = m.copy();
+        m.advanceRotors();
+        int period = period(m), leadIn = leadIn(m, period);
+        int n = m.alphabet().size(), width = width(n);
+        for (int t = 0; t < leadIn + period; t += 1) {
+            int base = t * n;
+            for (int v = 0; v < n; v += 1) {
+                int w = m.scramble(v);
+                if (width == 1) {
+                    tables.put(base + v, (byte) w);
+                } else if (width == 2) {
+                    tables.putShort(2 * (base + v), (short) w);
+                } else {
+                    tables.putInt(4 * (base + v), w);
+                }
+            }
+            m.advanceRotors();
+        }
+        return new KeystreamTable(m.alphabet(), leadIn, period, tables,
+                                  width);
+    }
+
+    /** Return the number of keypresses after which the settings of M
+     *  first repeat, using Brent's algorithm.  M is not changed. */
+    private static int period(CompiledMachine m) {
+        long tortoise = m.state();
+        CompiledMachine hare = m.copy();
+        hare.advanceRotors();
+        int power = 1, length = 1;
+        while (hare.state() != tortoise) {
+            if (power == length) {
+                tortoise = hare.state();
+                power *= 2;
+                length = 0;
+            }
+            hare.advanceRotors();
+            length += 1;
+        }
+        return length;
+    }
+
+    /** Return the number of keypresses from the settings of M before
+     *  they enter their cycle of length PERIOD.  M is not changed. */
+    private static int leadIn(CompiledMachine m, int period) {
+        CompiledMachine tortoise = m.copy(), hare = m.copy();
+        for (int t = 0; t < period; t += 1) {
+            hare.advanceRotors();
+        }
+        int result = 0;
+        while (tortoise.state() != hare.state()) {
+            tortoise.advanceRotors();
+            hare.advanceRotors();
+            result += 1;
+        }
+        return result;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of keypresses before the settings start to
+     *  repeat. */
+    int leadIn() {
+        return _leadIn;
+    }
+
+    /** Return the number of keypresses after which the settings
+     *  repeat. */
+    int period() {
+        return _period;
+    }
+
+    /** Return the number of bytes my tables occupy. */
+    long bytes() {
+        return (long) (_leadIn + _period) * _size * _width;
+    }
+
+    /** Return the number of keypresses converted so far. */
+    long position() {
+        return _position;
+    }
+
+    /** Continue from keypress POSITION, as if that many characters had
+     *  been converted since the machine's original settings. */
+    void seek(long position) {
+        if (position < 0) {
+            throw error("cannot seek before the start");
+        }
+        _position = position;
+    }
+
+    /** Returns the conversion of C (an index in the range 0..alphabet
+     *  size - 1) at the next keypress. */
+    int convert(int c) {
+        long t = _position;
+        _position += 1;
+        if (t >= _leadIn) {
+            t = _leadIn + (t - _leadIn) % _period;
+        }
+        int k = (int) t * _size + c;
+        if (_width == 1) {
+            return _tables.get(k) & 0xff;
+        } else if (_width == 2) {
+            return _tables.getShort(2 * k) & 0xffff;
+        }
+        return _tables.getInt(4 * k);
+    }
+
+    /** Returns the conversion of character C, which must be in my
+     *  alphabet. */
+    char convert(char c) {
+        int k = _alphabet.toInt(c);
+        if (k < 0) {
+            throw error("character '%c' not in alphabet", c);
+        }
+        return _alphabet.toChar(convert(k));
+    }
+
+    /** Returns the encoding/decoding of MSG. */
+    String convert(String msg) {
+        char[] result = new char[msg.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = convert(msg.charAt(i));
+        }
+        return new String(result);
+    }
+
+    /** Alphabet converted. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of tables before the cycle. */
+    private final int _leadIn;
+
+    /** Number of tables in the cycle. */
+    private final int _period;
+
+    /** The tables, each _size entries of _width bytes. */
+    private final ByteBuffer _tables;
+
+    /** Bytes per entry. */
+    private final int _width;
+
+    /** Number of keypresses converted. */
+    private long _position;
+}
@@ -0,0 +1,108 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeystreamTable class.
+ *  @author Nitin Nazeer
+ */
+public class KeystreamTableTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String[] ROTORS = {"B", "Beta", "III", "IV", "I"};
+
+    private static final String PLUGS = "(HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return a compiled naval machine in setting SETTING. */
+    private CompiledMachine machine(String setting) {
+        return navalMachine(ROTORS, setting, "BCDE", PLUGS).compile();
+    }
+
+    /** Return MSG repeated COUNT times. */
+    private String repeat(String msg, int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i += 1) {
+            result.append(msg);
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkCycleFound() {
+        for (String setting : new String[] {"AXLE", "AAJE", "AAIV"}) {
+            CompiledMachine m = machine(setting);
+            KeystreamTable table = KeystreamTable.build(m, 1 << 20);
+            HashMap<Long, Integer> seen = new HashMap<>();
+            for (int t = 0; ; t += 1) {
+                m.advanceRotors();
+                Integer first = seen.putIfAbsent(m.state(), t);
+                if (first != null) {
+                    assertEquals(setting, (int) first, table.leadIn());
+                    assertEquals(setting, t - first, table.period());
+                    break;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void checkMatchesMachine() {
+        CompiledMachine m = machine("AXLE");
+        KeystreamTable table = KeystreamTable.build(m, 1 << 20);
+        assertTrue(table.bytes() <= KeystreamTable.estimateBytes(m));
+        assertTrue(table.period() > 0);
+        String text = repeat(HIAWATHA, 50);
+        assertEquals(m.convert(text), table.convert(text));
+    }
+
+    @Test
+    public void checkWrapsAroundCycle() {
+        CompiledMachine m = machine("AXLE");
+        KeystreamTable table = KeystreamTable.build(m, 1 << 20);
+        long far = table.leadIn() + 3L * table.period() + 17;
+        m.seek(far);
+        table.seek(far);
+        assertEquals(m.convert(HIAWATHA), table.convert(HIAWATHA));
+        assertEquals(far + HIAWATHA.length(), table.position());
+    }
+
+    @Test
+    public void checkMappedFile() throws IOException {
+        Path file = Files.createTempFile("keystream", ".tbl");
+        try {
+            CompiledMachine m = machine("QRST");
+            KeystreamTable table = KeystreamTable.build(m, 1 << 20, file);
+            assertTrue(Files.size(file) >= table.bytes());
+            assertEquals(m.convert(HIAWATHA), table.convert(HIAWATHA));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadCharacter() {
+        KeystreamTable.build(machine("AXLE"), 1 << 20).convert("ABC!");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkRefusesOverBudget() {
+        KeystreamTable.build(machine("AXLE"), 1000);
+    }
+
+}
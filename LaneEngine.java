@@ -0,0 +1,269 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Converts many messages that share rotors, ring settings and plugboard
+ *  but start from different rotor settings, a batch of LANES messages at
+ *  a time in lockstep.  Each lane holds one message's rotor offsets; all
+ *  lanes share the rotor tables, and every stage of the conversion (plug,
+ *  each rotor forward, each rotor back, plug) is applied to all lanes
+ *  before the next, as independent table lookups over small arrays laid
+ *  out lane by lane.  The result for each message is exactly what a
+ *  Machine set up the same way would produce.  When the
+ *  jdk.incubator.vector module is present (java --add-modules
+ *  jdk.incubator.vector) the stages are done by VectorLanes, with
+ *  gathers; otherwise, or if the system property enigma.vector is
+ *  false, they are plain loops.
+ *  @author Nitin Nazeer
+ */
+final class LaneEngine {
+
+    /** Default number of messages converted in lockstep. */
+    static final int DEFAULT_LANES = 32;
+
+    /** The stages of a conversion step applied to all lanes. */
+    interface Kernel {
+        /** Advance the rotors of lanes FROM .. TO - 1, where POSN[I][L]
+         *  and OFFSET[I][L] are the setting and offset of slot I in lane
+         *  L. */
+        void step(int[][] posn, int[][] offset, int from, int to);
+
+        /** Replace C[L] by the image of contact C[L] through the doubled
+         *  TABLE of a rotor at offset OFFSET[L], for each L in FROM .. TO
+         *  - 1. */
+        void lookup(int[] table, int[] offset, int[] c, int from, int to);
+    }
+
+    /** An engine for sessions of SPEC holding the rotors named ROTORS,
+     *  with ring settings RINGS (all 0 if null) and plugboard PLUGBOARD
+     *  (the identity if null), converting LANES messages at a time. */
+    LaneEngine(MachineSpec spec, String[] rotors, String rings,
+               Permutation plugboard, int lanes) {
+        if (lanes < 1) {
+            throw error("need at least one lane");
+        }
+        spec.session(rotors, null, rings, plugboard);
+        _spec = spec;
+        _rotorNames = rotors.clone();
+        _rings = rings;
+        _plugboard = plugboard;
+        _alphabet = spec.alphabet();
+        _size = _alphabet.size();
+        _slots = rotors.length;
+        _lanes = lanes;
+        _forward = new int[_slots][];
+        _inverse = new int[_slots][];
+        _notches = new boolean[_slots][];
+        _rotates = new boolean[_slots];
+        _ring = new int[_slots];
+        for (int i = 0; i < _slots; i += 1) {
+            RotorSpec r = spec.rotor(rotors[i]);
+            _forward[i] = r.forward();
+            _inverse[i] = r.inverse();
+            _notches[i] = r.notches();
+            _rotates[i] = r.rotates();
+            if (i > 0 && rings != null) {
+                _ring[i] = _alphabet.toInt(rings.charAt(i - 1));
+            }
+        }
+        if (plugboard == null) {
+            plugboard = new Permutation("", _alphabet);
+        }
+        _plugForward = plugboard.forwardTable();
+        _plugInverse = plugboard.inverseTable();
+        _kernel = VECTOR ? vectorKernel() : new ScalarKernel();
+    }
+
+    /** Return a VectorLanes for my rotors, or a ScalarKernel if it cannot
+     *  be loaded.  VectorLanes is only named reflectively, so that this
+     *  class works without the incubator module. */
+    private Kernel vectorKernel() {
+        try {
+            return (Kernel) Class.forName("enigma.VectorLanes")
+                .getDeclaredConstructor(int.class, int.class,
+                                        boolean[][].class, boolean[].class,
+                                        Kernel.class)
+                .newInstance(_size, _lanes, _notches, _rotates,
+                             new ScalarKernel());
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return new ScalarKernel();
+        }
+    }
+
+    /** Return true iff my stages use the Vector API. */
+    boolean vectorized() {
+        return !(_kernel instanceof ScalarKernel);
+    }
+
+    /** An engine as above with DEFAULT_LANES lanes. */
+    LaneEngine(MachineSpec spec, String[] rotors, String rings,
+               Permutation plugboard) {
+        this(spec, rotors, rings, plugboard, DEFAULT_LANES);
+    }
+
+    /** Return the number of messages I convert in lockstep. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Return the conversions of MESSAGES, where MESSAGES[K] starts from
+     *  rotor settings SETTINGS[K].  Every character of every message must
+     *  be in the alphabet. */
+    String[] convert(String[] settings, String[] messages) {
+        if (settings.length != messages.length) {
+            throw error("need one setting per message");
+        }
+        Integer[] order = new Integer[messages.length];
+        for (int k = 0; k < order.length; k += 1) {
+            order[k] = k;
+        }
+        Arrays.sort(order,
+            (a, b) -> messages[b].length() - messages[a].length());
+
+        String[] result = new String[messages.length];
+        int[][] posn = new int[_slots][_lanes];
+        int[][] offset = new int[_slots][_lanes];
+        int[] c = new int[_lanes];
+        char[][] text = new char[_lanes][];
+        for (int first = 0; first < order.length; first += _lanes) {
+            int width = Math.min(_lanes, order.length - first);
+            for (int l = 0; l < width; l += 1) {
+                int k = order[first + l];
+                text[l] = messages[k].toCharArray();
+                CompiledMachine start =
+                    _spec.session(_rotorNames, settings[k], _rings,
+                                  _plugboard);
+                for (int i = 0; i < _slots; i += 1) {
+                    posn[i][l] = start.setting(i);
+                    offset[i][l] = Math.floorMod(posn[i][l] - _ring[i],
+                                                 _size);
+                }
+            }
+            run(text, width, posn, offset, c);
+            for (int l = 0; l < width; l += 1) {
+                result[order[first + l]] = new String(text[l]);
+            }
+        }
+        return result;
+    }
+
+    /** Convert TEXT[0 .. WIDTH - 1] in place, lane L starting with rotor
+     *  settings POSN[*][L] and offsets OFFSET[*][L].  TEXT is in order of
+     *  decreasing length.  C is scratch space of one int per lane. */
+    private void run(char[][] text, int width, int[][] posn,
+                     int[][] offset, int[] c) {
+        int last = _slots - 1;
+        int active = width;
+        for (int t = 0; active > 0; t += 1) {
+            while (active > 0 && text[active - 1].length <= t) {
+                active -= 1;
+            }
+            _kernel.step(posn, offset, 0, active);
+            for (int l = 0; l < active; l += 1) {
+                int k = _alphabet.toInt(text[l][t]);
+                if (k < 0) {
+                    throw error("character '%c' not in alphabet",
+                                text[l][t]);
+                }
+                c[l] = _plugForward[k];
+            }
+            for (int i = last; i >= 0; i -= 1) {
+                _kernel.lookup(_forward[i], offset[i], c, 0, active);
+            }
+            for (int i = 1; i <= last; i += 1) {
+                _kernel.lookup(_inverse[i], offset[i], c, 0, active);
+            }
+            for (int l = 0; l < active; l += 1) {
+                text[l][t] = _alphabet.toChar(_plugInverse[c[l]]);
+            }
+        }
+    }
+
+    /** The stages done one lane at a time. */
+    private final class ScalarKernel implements Kernel {
+
+        @Override
+        public void step(int[][] posn, int[][] offset, int from, int to) {
+            int n = _size, last = _slots - 1;
+            for (int i = 0; i <= last; i += 1) {
+                boolean[] mine = _notches[i];
+                boolean[] right = i < last ? _notches[i + 1] : null;
+                int[] p = posn[i], o = offset[i];
+                for (int l = from; l < to; l += 1) {
+                    boolean move = i == 0 || i == last ? _rotates[i]
+                        : (_rotates[i] && right[posn[i + 1][l]])
+                        || (_rotates[i - 1] && mine[p[l]]);
+                    if (move) {
+                        p[l] = p[l] == n - 1 ? 0 : p[l] + 1;
+                        o[l] = o[l] == n - 1 ? 0 : o[l] + 1;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void lookup(int[] table, int[] offset, int[] c, int from,
+                           int to) {
+            for (int l = from; l < to; l += 1) {
+                int v = table[c[l] + offset[l]] - offset[l];
+                c[l] = v < 0 ? v + _size : v;
+            }
+        }
+    }
+
+    /** True iff the Vector API should be used when it is present. */
+    private static final boolean VECTOR =
+        Boolean.parseBoolean(System.getProperty("enigma.vector", "true"))
+        && ModuleLayer.boot().findModule("jdk.incubator.vector")
+            .isPresent();
+
+    /** The configuration my sessions come from. */
+    private final MachineSpec _spec;
+
+    /** Names of the rotors in each slot. */
+    private final String[] _rotorNames;
+
+    /** Ring settings, or null. */
+    private final String _rings;
+
+    /** Plugboard, or null. */
+    private final Permutation _plugboard;
+
+    /** Alphabet converted. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** Number of messages converted in lockstep. */
+    private final int _lanes;
+
+    /** Doubled forward table of each slot. */
+    private final int[][] _forward;
+
+    /** Doubled inverse table of each slot. */
+    private final int[][] _inverse;
+
+    /** _notches[I][P] is true iff slot I is at a notch in setting P. */
+    private final boolean[][] _notches;
+
+    /** _rotates[I] is true iff slot I has a ratchet. */
+    private final boolean[] _rotates;
+
+    /** Ring setting of each slot. */
+    private final int[] _ring;
+
+    /** Forward table of the plugboard. */
+    private final int[] _plugForward;
+
+    /** Inverse table of the plugboard. */
+    private final int[] _plugInverse;
+
+    /** Performs the stages of each step. */
+    private final Kernel _kernel;
+}
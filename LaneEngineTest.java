@@ -0,0 +1,80 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the LaneEngine class.
+ *  @author Nitin Nazeer
+ */
+public class LaneEngineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String[] STACK =
+        {"B", "Beta", "III", "IV", "I"};
+
+    private static final String PLUGS = "(HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return a random string of LEN upper-case letters from RANDOM. */
+    private String letters(Random random, int len) {
+        char[] result = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            result[i] = UPPER_STRING.charAt(random.nextInt(26));
+        }
+        return new String(result);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkMatchesMachine() {
+        Random random = new Random(19);
+        MachineSpec spec = new MachineSpec(UPPER, 5, 3, navalRotors());
+        for (int lanes : new int[] {1, 4, 16, 40}) {
+            LaneEngine engine = new LaneEngine(
+                spec, STACK, "QBRT", new Permutation(PLUGS, UPPER), lanes);
+            String[] settings = new String[37];
+            String[] messages = new String[settings.length];
+            for (int k = 0; k < settings.length; k += 1) {
+                settings[k] = letters(random, 4);
+                messages[k] = letters(random, random.nextInt(2000));
+            }
+            messages[5] = "";
+            String[] result = engine.convert(settings, messages);
+            for (int k = 0; k < settings.length; k += 1) {
+                Machine reference = navalMachine(STACK, settings[k], "QBRT",
+                                                 PLUGS);
+                assertEquals(msg("lanes", "%d lanes, message %d", lanes, k),
+                             reference.convert(messages[k]), result[k]);
+            }
+        }
+    }
+
+    @Test
+    public void checkVectorWhenPresent() {
+        MachineSpec spec = new MachineSpec(UPPER, 5, 3, navalRotors());
+        boolean present = ModuleLayer.boot()
+            .findModule("jdk.incubator.vector").isPresent();
+        assertEquals(present && !"false".equals(
+                         System.getProperty("enigma.vector")),
+                     new LaneEngine(spec, STACK, null, null).vectorized());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadCharacter() {
+        MachineSpec spec = new MachineSpec(UPPER, 5, 3, navalRotors());
+        new LaneEngine(spec, STACK, null, null)
+            .convert(new String[] {"AAAA"}, new String[] {"ABC!"});
+    }
+
+}
@@ -0,0 +1,103 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A lock-free histogram of non-negative values such as latencies in
+ *  nanoseconds, in the style of HdrHistogram: values below 64 are
+ *  counted exactly, and larger ones in 32 equal buckets per power of
+ *  two, so any recorded value is reported to within about 3%.  Recording
+ *  is a single atomic increment, and any number of threads may record
+ *  at once.
+ *  @author Nitin Nazeer
+ */
+final class LatencyHistogram {
+
+    /** Log base 2 of the number of buckets per power of two. */
+    private static final int SUB_BITS = 5;
+
+    /** Number of buckets per power of two. */
+    private static final int SUB = 1 << SUB_BITS;
+
+    /** Number of buckets, enough for any non-negative long. */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    /** Return the bucket holding VALUE. */
+    static int bucket(long value) {
+        if (value < 2 * SUB) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((value >>> shift) & (SUB - 1));
+    }
+
+    /** Return the smallest value in bucket K. */
+    static long lowest(int k) {
+        if (k < 2 * SUB) {
+            return k;
+        }
+        int shift = k / SUB - 1;
+        return (long) (SUB + k % SUB) << shift;
+    }
+
+    /** Record VALUE, which must be non-negative. */
+    void record(long value) {
+        if (value < 0) {
+            throw error("negative value in histogram");
+        }
+        _counts.incrementAndGet(bucket(value));
+        _total.increment();
+        _sum.add(value);
+    }
+
+    /** Return the number of values recorded. */
+    long count() {
+        return _total.sum();
+    }
+
+    /** Return the mean of the values recorded, or 0 if there are
+     *  none. */
+    double mean() {
+        long n = count();
+        return n == 0 ? 0 : (double) _sum.sum() / n;
+    }
+
+    /** Return the smallest value V such that at least the fraction P of
+     *  recorded values are at most V, to the precision of my buckets, or
+     *  0 if none have been recorded. */
+    long percentile(double p) {
+        long n = count();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        for (int k = 0; k < BUCKETS; k += 1) {
+            seen += _counts.get(k);
+            if (seen >= rank) {
+                return k + 1 < BUCKETS ? lowest(k + 1) - 1 : Long.MAX_VALUE;
+            }
+        }
+        return lowest(BUCKETS - 1);
+    }
+
+    /** Discard all recorded values. */
+    void reset() {
+        for (int k = 0; k < BUCKETS; k += 1) {
+            _counts.set(k, 0);
+        }
+        _total.reset();
+        _sum.reset();
+    }
+
+    /** Number of values in each bucket. */
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+
+    /** Number of values recorded. */
+    private final LongAdder _total = new LongAdder();
+
+    /** Sum of the values recorded. */
+    private final LongAdder _sum = new LongAdder();
+}
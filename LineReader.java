@@ -0,0 +1,349 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** A source of text lines decoded from a byte channel through fixed
+ *  buffers, taken from the blocks decoded by a Pipeline, or scanned
+ *  directly from a file mapped into memory.  Each line is presented in a
+ *  reusable character array, so reading a line allocates nothing unless
+ *  it is longer than any line read before.
+ *  @author Nitin Nazeer
+ */
+class LineReader {
+
+    /** Size of my byte and character buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Largest part of a file mapped at once, and so the longest line a
+     *  mapped reader accepts. */
+    static final int MAP_WINDOW = 1 << 30;
+
+    /** A reader of the lines of IN, decoded using CHARSET. */
+    LineReader(ReadableByteChannel in, Charset charset) {
+        _in = in;
+        _decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        _chars = CharBuffer.allocate(BUFFER_SIZE);
+        _chars.flip();
+        _line = new char[256];
+        _pipeline = null;
+        _file = null;
+        _window = 0;
+    }
+
+    /** A reader of the lines in the input blocks of PIPELINE. */
+    LineReader(Pipeline pipeline) {
+        _in = null;
+        _decoder = null;
+        _bytes = null;
+        _chars = CharBuffer.allocate(0);
+        _line = new char[256];
+        _pipeline = pipeline;
+        _file = null;
+        _window = 0;
+    }
+
+    /** A reader of the lines of FILE, which it maps into memory WINDOW
+     *  bytes at a time.  Lines of ASCII characters are copied straight
+     *  into line(); only lines containing other bytes are decoded, using
+     *  CHARSET, which must be asciiCompatible. */
+    LineReader(FileChannel file, Charset charset, int window) {
+        _in = null;
+        _decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _bytes = null;
+        _chars = null;
+        _line = new char[256];
+        _pipeline = null;
+        _file = file;
+        _window = window;
+        try {
+            _size = file.size();
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Return true iff CHARSET encodes each ASCII character as the single
+     *  byte with its code, so that lines in it can be found and copied
+     *  without decoding. */
+    static boolean asciiCompatible(Charset charset) {
+        if (!charset.canEncode()) {
+            return false;
+        }
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i += 1) {
+            ascii[i] = (byte) i;
+        }
+        String text = new String(ascii, StandardCharsets.US_ASCII);
+        return Arrays.equals(ascii, text.getBytes(charset));
+    }
+
+    /** Read the next line, without its terminator, into line().  Returns
+     *  false, leaving line() empty, if there are no more lines. */
+    boolean next() {
+        if (_file != null) {
+            return nextMapped();
+        }
+        _length = 0;
+        boolean any = false;
+        while (true) {
+            if (!_chars.hasRemaining() && !fill()) {
+                return any;
+            }
+            any = true;
+            char[] buf = _chars.array();
+            int start = _chars.position(), end = _chars.limit();
+            int k;
+            for (k = start; k < end && buf[k] != '\n'; k += 1) {
+                continue;
+            }
+            append(buf, start, k - start);
+            if (k < end) {
+                _chars.position(k + 1);
+                if (_length > 0 && _line[_length - 1] == '\r') {
+                    _length -= 1;
+                }
+                return true;
+            }
+            _chars.position(end);
+        }
+    }
+
+    /** Return the buffer holding the current line in its first
+     *  length() characters.  It is overwritten by the next call to
+     *  next(). */
+    char[] line() {
+        return _line;
+    }
+
+    /** Return the length of the current line. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the current line as a String. */
+    String lineString() {
+        return new String(_line, 0, _length);
+    }
+
+    /** Returns the index of the first character of the current line
+     *  that is not whitespace, or length() if there is none. */
+    int firstNonBlank() {
+        int k;
+        for (k = 0; k < _length && Character.isWhitespace(_line[k]); k += 1) {
+            continue;
+        }
+        return k;
+    }
+
+    /** Returns true iff the first whitespace-delimited word of the
+     *  current line is exactly "*". */
+    boolean isSettingLine() {
+        return isSettingLine(_line, firstNonBlank(), _length);
+    }
+
+    /** Returns true iff the first LENGTH characters of LINE, whose first
+     *  non-whitespace character is at FIRST, start with the word "*". */
+    static boolean isSettingLine(char[] line, int first, int length) {
+        return first < length && line[first] == '*'
+            && (first + 1 == length
+                || Character.isWhitespace(line[first + 1]));
+    }
+
+    /** Read the next line of my mapped file into line(), as for
+     *  next(). */
+    private boolean nextMapped() {
+        _length = 0;
+        if (_next >= _size) {
+            return false;
+        }
+        int k = (int) (_next - _mapBase);
+        if (_map == null || k >= _map.limit()) {
+            k = remap();
+        }
+        int end;
+        while (true) {
+            int limit = _map.limit();
+            for (end = k; end < limit && _map.get(end) != '\n'; end += 1) {
+                continue;
+            }
+            if (end < limit || _mapBase + limit == _size) {
+                break;
+            }
+            if (k == 0) {
+                throw error("input line too long");
+            }
+            k = remap();
+        }
+        _next = _mapBase + end + 1;
+        if (end > k && _map.get(end - 1) == '\r') {
+            end -= 1;
+        }
+        ensure(end - k);
+        char[] line = _line;
+        for (int i = k; i < end; i += 1) {
+            byte b = _map.get(i);
+            if (b < 0) {
+                decode(k, end);
+                return true;
+            }
+            line[i - k] = (char) b;
+        }
+        _length = end - k;
+        return true;
+    }
+
+    /** Map the part of my file starting at _next, and return the index
+     *  of _next in it. */
+    private int remap() {
+        try {
+            _mapBase = _next;
+            _map = _file.map(FileChannel.MapMode.READ_ONLY, _mapBase,
+                             Math.min(_window, _size - _mapBase));
+            return 0;
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Decode bytes START through END - 1 of my mapped window into my
+     *  line. */
+    private void decode(int start, int end) {
+        ByteBuffer in = _map.duplicate().limit(end).position(start);
+        _decoder.reset();
+        while (true) {
+            CharBuffer out = CharBuffer.wrap(_line);
+            boolean overflow = _decoder.decode(in, out, true).isOverflow()
+                || _decoder.flush(out).isOverflow();
+            _length = out.position();
+            if (!overflow) {
+                return;
+            }
+            in.position(start);
+            _decoder.reset();
+            ensure(2 * _line.length);
+        }
+    }
+
+    /** Make my line able to hold at least LEN characters. */
+    private void ensure(int len) {
+        if (len > _line.length) {
+            _line = new char[Math.max(2 * _line.length, len)];
+        }
+    }
+
+    /** Append LEN characters of BUF starting at START to my line,
+     *  growing it if necessary. */
+    private void append(char[] buf, int start, int len) {
+        if (_length + len > _line.length) {
+            char[] bigger = new char[Math.max(2 * _line.length,
+                                              _length + len)];
+            System.arraycopy(_line, 0, bigger, 0, _length);
+            _line = bigger;
+        }
+        System.arraycopy(buf, start, _line, _length, len);
+        _length += len;
+    }
+
+    /** Refill my character buffer from the channel or pipeline.  Returns
+     *  false iff the input is exhausted. */
+    private boolean fill() {
+        if (_pipeline != null) {
+            do {
+                _chars = _pipeline.input();
+                if (_chars == null) {
+                    _chars = CharBuffer.allocate(0);
+                    return false;
+                }
+            } while (!_chars.hasRemaining());
+            return true;
+        }
+        try {
+            _chars.clear();
+            while (_chars.position() == 0) {
+                if (_eof) {
+                    if (!_flushed) {
+                        _decoder.flush(_chars);
+                        _flushed = true;
+                    }
+                    break;
+                }
+                if (_in.read(_bytes) < 0) {
+                    _eof = true;
+                }
+                _bytes.flip();
+                CoderResult result = _decoder.decode(_bytes, _chars, _eof);
+                _bytes.compact();
+                if (result.isError()) {
+                    result.throwException();
+                }
+            }
+            _chars.flip();
+            return _chars.hasRemaining();
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** The channel I read from. */
+    private final ReadableByteChannel _in;
+
+    /** Decoder from the bytes of _in to characters. */
+    private final CharsetDecoder _decoder;
+
+    /** Bytes read from _in but not yet decoded. */
+    private final ByteBuffer _bytes;
+
+    /** Characters decoded but not yet returned in a line. */
+    private CharBuffer _chars;
+
+    /** Source of decoded blocks, used instead of _in if not null. */
+    private final Pipeline _pipeline;
+
+    /** File mapped into memory, used instead of _in if not null. */
+    private final FileChannel _file;
+
+    /** Largest number of bytes of _file to map at once. */
+    private final int _window;
+
+    /** Size of _file. */
+    private long _size;
+
+    /** The currently mapped part of _file, or null. */
+    private MappedByteBuffer _map;
+
+    /** Offset in _file of the start of _map. */
+    private long _mapBase;
+
+    /** Offset in _file of the start of the next line. */
+    private long _next;
+
+    /** True once _in has reported end of input. */
+    private boolean _eof;
+
+    /** True once _decoder has been flushed after end of input. */
+    private boolean _flushed;
+
+    /** The current line, in its first _length characters. */
+    private char[] _line;
+
+    /** Length of the current line. */
+    private int _length;
+}
@@ -1,5 +1,7 @@
 package enigma;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -34,7 +36,7 @@ class Machine {
         _allRotors = allRotors;
         this.numRotors = numRotorss;
         this.pawls = pawlss;
-        this.currRotors = new ArrayList();
+        this.currRotors = new ArrayList<>();
         this.plugboard = null;
     }
 
@@ -48,6 +50,53 @@ class Machine {
         return this.pawls;
     }
 
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return all the rotors I can choose from. */
+    Collection<Rotor> allRotors() {
+        return _allRotors;
+    }
+
+    /** Return my plugboard permutation, or null if none is set. */
+    Permutation plugboard() {
+        return this.plugboard == null ? null : this.plugboard.permutation();
+    }
+
+    /** Return a compiled copy of my current rotors, settings, rings and
+     *  plugboard, for fast conversion.  The copy does not track later
+     *  changes to me, so compile again after reconfiguring. */
+    CompiledMachine compile() {
+        return new CompiledMachine(this);
+    }
+
+    /** Return an immutable specification of my alphabet, slots, pawls and
+     *  available rotors, from which independent sessions can be made. */
+    MachineSpec spec() {
+        return new MachineSpec(_alphabet, this.numRotors, this.pawls,
+                               _allRotors);
+    }
+
+    /** Put my rotors in the settings they would have after converting
+     *  COUNT more characters, without converting them. */
+    void seek(long count) {
+        CompiledMachine compiled = compile();
+        compiled.seek(count);
+        follow(compiled);
+    }
+
+    /** Put my rotors in the settings of the rotors of COMPILED, a
+     *  compiled copy of me that has since advanced. */
+    private void follow(CompiledMachine compiled) {
+        for (int i = 0; i < totalCurrRotors(); i += 1) {
+            if (getRotor(i).rotates()) {
+                getRotor(i).set(compiled.setting(i));
+            }
+        }
+    }
+
     /** Return the number of active rotors currently in the machine. */
     int totalCurrRotors() {
         return this.currRotors.size();
@@ -101,6 +150,9 @@ class Machine {
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
+        if (Metrics.ENABLED) {
+            Metrics.converted();
+        }
         advanceRotors();
         c = this.plugboard.convertForward(c);
         for (int i = this.currRotors.size() - 1; i >= 0; i -= 1) {
@@ -124,48 +176,133 @@ class Machine {
         return _alphabet.toChar(d);
     }
 
-    /** Advance the rotors that can be advanced. */
+    /** Advance the rotors that can be advanced.  Rotors are handled
+     *  left to right in place: whether rotor I advances depends only on
+     *  rotors I - 1, I and I + 1, and of those only rotor I - 1 has moved,
+     *  which does not change whether it rotates. */
     void advanceRotors() {
-        boolean[] willAdvance = canAdvance();
         for (int i = 0; i < this.currRotors.size(); i += 1) {
-            if (willAdvance[i]) {
+            if (canAdvance(i)) {
+                if (Metrics.ENABLED) {
+                    count(i);
+                }
                 getRotor(i).advance();
             }
         }
     }
 
+    /** Record in Metrics that the rotor at INDEX is about to advance. */
+    private void count(int index) {
+        Metrics.advanced(index);
+        if (index > 0 && index < totalCurrRotors() - 1
+            && getRotor(index).atNotch() && getRotor(index - 1).rotates()) {
+            Metrics.doubleStepped();
+        }
+    }
+
     /** Returns whether the rotor at INDEX can advance next turn. */
     boolean[] canAdvance() {
         boolean[] willAdvance = new boolean[totalCurrRotors()];
         for (int i = 0; i < this.currRotors.size(); i += 1) {
-            Rotor currRotor = getRotor(i);
-            if (i == totalCurrRotors() - 1) {
-                willAdvance[i] = currRotor.rotates();
-            } else if (i == 0) {
-                willAdvance[i] = currRotor.rotates();
-            } else {
-                Rotor rightRotor = getRotor(i + 1);
-                Rotor leftRotor = getRotor(i - 1);
-                willAdvance[i] = (rightRotor.atNotch() && currRotor.rotates())
-                        || (currRotor.atNotch() && leftRotor.rotates());
-            }
+            willAdvance[i] = canAdvance(i);
         }
         return willAdvance;
     }
 
+    /** Returns whether the rotor at INDEX can advance next turn. */
+    private boolean canAdvance(int index) {
+        Rotor currRotor = getRotor(index);
+        if (index == 0 || index == totalCurrRotors() - 1) {
+            return currRotor.rotates();
+        }
+        Rotor rightRotor = getRotor(index + 1);
+        Rotor leftRotor = getRotor(index - 1);
+        return (rightRotor.atNotch() && currRotor.rotates())
+                || (currRotor.atNotch() && leftRotor.rotates());
+    }
+
     /** @return the current rotor at INDEX. */
     Rotor getRotor(int index) {
         return this.currRotors.get(index);
     }
 
+    /** Convert the LEN characters of SRC starting at OFF, writing the
+     *  results to DST starting at DSTOFF, and return the number written.
+     *  Characters not in my alphabet are skipped: they produce no output
+     *  and do not advance the rotors.  SRC and DST may be the same array
+     *  provided DSTOFF <= OFF.  Nothing is allocated. */
+    int convert(char[] src, int off, int len, char[] dst, int dstOff) {
+        int j = dstOff;
+        for (int i = off; i < off + len; i += 1) {
+            int k = _alphabet.toInt(src[i]);
+            if (k >= 0) {
+                dst[j] = _alphabet.toChar(convert(k));
+                j += 1;
+            }
+        }
+        return j - dstOff;
+    }
+
+    /** Convert characters from IN, writing the results to OUT, until IN
+     *  is exhausted or OUT is full, skipping characters not in my
+     *  alphabet as for convert(char[], int, int, char[], int). */
+    void convert(CharBuffer in, CharBuffer out) {
+        while (in.hasRemaining() && out.hasRemaining()) {
+            int k = _alphabet.toInt(in.get());
+            if (k >= 0) {
+                out.put(_alphabet.toChar(convert(k)));
+            }
+        }
+    }
+
+    /** Convert the LEN bytes of DATA starting at OFF in place, updating
+     *  the state of the rotors accordingly.  Each byte B stands for the
+     *  symbol whose code point is B & 0xff (see Alphabet.bytes()); bytes
+     *  not in my alphabet are left as they are and do not advance the
+     *  rotors.  My alphabet must consist of byte values. */
+    void convert(byte[] data, int off, int len) {
+        CompiledMachine compiled = compile();
+        compiled.convert(data, off, len);
+        follow(compiled);
+    }
+
+    /** Convert the remaining bytes of DATA in place, as for
+     *  convert(byte[], int, int), leaving its position at its limit. */
+    void convert(ByteBuffer data) {
+        CompiledMachine compiled = compile();
+        compiled.convert(data);
+        follow(compiled);
+    }
+
+    /** Convert the LEN code points of CODEPOINTS starting at OFF in
+     *  place, updating the state of the rotors accordingly.  Code points
+     *  not in my alphabet are left as they are and do not advance the
+     *  rotors. */
+    void convert(int[] codePoints, int off, int len) {
+        CompiledMachine compiled = compile();
+        compiled.convert(codePoints, off, len);
+        follow(compiled);
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
+        FlightEvents.Convert event = null;
+        if (FlightEvents.convertEnabled()) {
+            event = new FlightEvents.Convert();
+            event.begin();
+        }
         char[] retCharArray = new char[msg.length()];
         for (int i = 0; i < msg.length(); i += 1) {
             char c = msg.charAt(i);
             retCharArray[i] = convert(c);
         }
+        if (event != null && event.shouldCommit()) {
+            event.messageLength = msg.length();
+            event.rotors = FlightEvents.rotorNames(this);
+            event.alphabetSize = _alphabet.size();
+            event.commit();
+        }
         return new String(retCharArray);
     }
 
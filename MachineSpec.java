@@ -0,0 +1,124 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** The unchanging part of an enigma configuration: its alphabet, its
+ *  numbers of slots and pawls, and descriptions of all the rotors it can
+ *  use.  A MachineSpec is immutable and may be shared between threads.
+ *  Each message is converted by its own session, a CompiledMachine that
+ *  holds nothing but rotor settings of its own, so sessions are cheap to
+ *  create and never contend with each other.
+ *  @author Nitin Nazeer
+ */
+final class MachineSpec {
+
+    /** A specification for machines over ALPHA with NUMROTORS slots,
+     *  of which the rightmost PAWLS hold moving rotors, that choose
+     *  their rotors from ALLROTORS.  The settings of the rotors in
+     *  ALLROTORS are ignored. */
+    MachineSpec(Alphabet alpha, int numRotors, int pawls,
+                Collection<Rotor> allRotors) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        HashMap<String, RotorSpec> rotors = new HashMap<>();
+        for (Rotor r : allRotors) {
+            rotors.putIfAbsent(r.name(), new RotorSpec(r));
+        }
+        _rotors = Collections.unmodifiableMap(rotors);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots I have. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls (and thus rotating rotors) I have. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return the description of the rotor named NAME, or null if I have
+     *  none. */
+    RotorSpec rotor(String name) {
+        return _rotors.get(name);
+    }
+
+    /** Return the names of all my rotors, in sorted order. */
+    List<String> rotorNames() {
+        ArrayList<String> names = new ArrayList<>(_rotors.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /** Return a new session whose slots hold the rotors named ROTORS
+     *  (ROTORS[0] names the reflector), set according to SETTING and
+     *  ring settings RINGS (all 0 if null), each a string of
+     *  numRotors()-1 characters in my alphabet, and whose plugboard is
+     *  PLUGBOARD (the identity if null). */
+    CompiledMachine session(String[] rotors, String setting, String rings,
+                            Permutation plugboard) {
+        if (rotors.length != _numRotors) {
+            throw error("wrong number of rotors");
+        }
+        RotorSpec[] stack = new RotorSpec[_numRotors];
+        for (int i = 0; i < _numRotors; i += 1) {
+            stack[i] = rotor(rotors[i]);
+            if (stack[i] == null) {
+                throw error("unknown rotor %s", rotors[i]);
+            }
+            if (stack[i].rotates() != (i >= _numRotors - _pawls)) {
+                throw error("rotor %s in wrong position", rotors[i]);
+            }
+        }
+        if (!stack[0].reflecting()) {
+            throw error("first rotor must be a reflector");
+        }
+        return new CompiledMachine(_alphabet, stack, indices(setting),
+                                   indices(rings), plugboard);
+    }
+
+    /** Return the indices of the characters of SETTING, one per slot,
+     *  with 0 for the reflector.  A null SETTING means all 0. */
+    private int[] indices(String setting) {
+        int[] result = new int[_numRotors];
+        if (setting == null) {
+            return result;
+        }
+        if (setting.length() != _numRotors - 1) {
+            throw error("bad settings length");
+        }
+        for (int i = 0; i < setting.length(); i += 1) {
+            result[i + 1] = _alphabet.toInt(setting.charAt(i));
+            if (result[i + 1] < 0) {
+                throw error("setting character '%c' not in alphabet",
+                            setting.charAt(i));
+            }
+        }
+        return result;
+    }
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** Descriptions of my rotors, by name. */
+    private final Map<String, RotorSpec> _rotors;
+}
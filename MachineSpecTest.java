@@ -0,0 +1,93 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MachineSpec class.
+ *  @author Nitin Nazeer
+ */
+public class MachineSpecTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String[] STACK =
+        {"B", "Beta", "III", "IV", "I"};
+
+    private static final String PLUGS = "(HQ) (EX) (IP) (TR) (BY)";
+
+    private final MachineSpec spec =
+        new MachineSpec(UPPER, 5, 3, navalRotors());
+
+    /** Return the conversion of HIAWATHA by a Machine in SETTING with
+     *  ring settings RINGS. */
+    private String reference(String setting, String rings) {
+        return navalMachine(STACK, setting, rings, PLUGS).convert(HIAWATHA);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSessionMatchesMachine() {
+        CompiledMachine session =
+            spec.session(STACK, "AXLE", "BCDE", new Permutation(PLUGS, UPPER));
+        assertEquals(reference("AXLE", "BCDE"), session.convert(HIAWATHA));
+    }
+
+    @Test
+    public void checkSessionsIndependent() {
+        Permutation plugs = new Permutation(PLUGS, UPPER);
+        CompiledMachine first = spec.session(STACK, "AXLE", null, plugs);
+        CompiledMachine second = spec.session(STACK, "AXLE", null, plugs);
+        String expected = reference("AXLE", null);
+        assertEquals(expected, first.convert(HIAWATHA));
+        assertEquals(expected, second.convert(HIAWATHA));
+    }
+
+    @Test
+    public void checkConcurrentSessions() throws Exception {
+        String[] settings = {"AXLE", "QEVJ", "ZZZZ", "MNOP"};
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int k = 0; k < 64; k += 1) {
+                String setting = settings[k % settings.length];
+                results.add(pool.submit(() ->
+                    spec.session(STACK, setting, null,
+                                 new Permutation(PLUGS, UPPER))
+                        .convert(HIAWATHA)));
+            }
+            for (int k = 0; k < results.size(); k += 1) {
+                assertEquals(reference(settings[k % settings.length], null),
+                             results.get(k).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnknownRotor() {
+        spec.session(new String[] {"B", "Beta", "III", "IV", "XI"},
+                     "AAAA", null, null);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkMovingRotorInFixedSlot() {
+        spec.session(new String[] {"B", "I", "III", "IV", "II"},
+                     "AAAA", null, null);
+    }
+}
@@ -3,7 +3,18 @@ package enigma;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
+
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
@@ -18,23 +29,45 @@ public final class Main {
 
     /** Process a sequence of encryptions and decryptions, as
      *  specified by ARGS, where 1 <= ARGS.length <= 3.
-     *  ARGS[0] is the name of a configuration file.
+     *  ARGS[0] is the name of a configuration file, either in text form
+     *  or compiled into an image by ConfigImage.
      *  ARGS[1] is optional; when present, it names an input file
      *  containing messages.  Otherwise, input comes from the standard
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.  If the system property enigma.pipeline is
+     *  true, input and output are handled by threads of their own (see
+     *  Pipeline).  Otherwise, input and output files are mapped into
+     *  memory unless the system property enigma.map is false. */
     public static void main(String... args) {
+        if (Metrics.ENABLED) {
+            startMetrics();
+        }
         try {
             new Main(args).process();
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
+        } finally {
+            if (Metrics.ENABLED) {
+                System.err.println(Metrics.get().report());
+            }
         }
         System.exit(1);
     }
 
+    /** Make metrics visible through JMX and, if the system property
+     *  enigma.metrics.period is a positive number of milliseconds,
+     *  print a report to the standard error that often. */
+    private static void startMetrics() {
+        Metrics.register();
+        long period = Long.getLong("enigma.metrics.period", 0);
+        if (period > 0) {
+            Metrics.reportEvery(System.err, period);
+        }
+    }
+
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
         if (args.length < 1 || args.length > 3) {
@@ -42,19 +75,61 @@ public final class Main {
                     + "allowed");
         }
 
-        _config = getInput(args[0]);
+        if (ConfigImage.isImage(Paths.get(args[0]))) {
+            _image = Paths.get(args[0]);
+        } else {
+            _config = getInput(args[0]);
+        }
 
+        Charset charset = Charset.defaultCharset();
+        ReadableByteChannel source;
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            FileChannel file = getChannel(args[1]);
+            source = file;
+            if (MAPPED && Files.isRegularFile(Paths.get(args[1]))
+                && LineReader.asciiCompatible(charset)) {
+                _input = new LineReader(file, charset, LineReader.MAP_WINDOW);
+            }
         } else {
-            _input = new Scanner(System.in);
+            source = Channels.newChannel(System.in);
         }
 
         if (args.length > 2) {
-            _output = getOutput(args[2]);
+            Path name = Paths.get(args[2]);
+            if (MAPPED && (Files.isRegularFile(name) || !Files.exists(name))) {
+                _mappedOutput = new MappedOutput(getOutputChannel(args[2]),
+                                                 charset, MappedOutput.WINDOW);
+            } else {
+                _output = getOutput(args[2]);
+            }
         } else {
             _output = System.out;
         }
+        if (_output != null) {
+            _writer = new OutputStreamWriter(_output, charset);
+        }
+
+        if (_input != null) {
+            return;
+        }
+        if (Pipeline.ENABLED) {
+            _pipeline = new Pipeline(source, charset, _writer);
+            _input = new LineReader(_pipeline);
+        } else {
+            _input = new LineReader(source, charset);
+        }
+    }
+
+    /** A Main that only reads configurations. */
+    private Main() {
+    }
+
+    /** Return the machine described by the text configuration file
+     *  NAME. */
+    static Machine readConfigFile(String name) {
+        Main reader = new Main();
+        reader._config = reader.getInput(name);
+        return reader.readConfig();
     }
 
     /** Return a Scanner reading from the file named NAME. */
@@ -66,6 +141,28 @@ public final class Main {
         }
     }
 
+    /** Return a channel reading from the file named NAME. */
+    private FileChannel getChannel(String name) {
+        try {
+            return FileChannel.open(Paths.get(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a channel for reading and writing the file named NAME,
+     *  creating it if need be. */
+    private FileChannel getOutputChannel(String name) {
+        try {
+            return FileChannel.open(Paths.get(name),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
     /** Return a PrintStream writing to the file named NAME. */
     private PrintStream getOutput(String name) {
         try {
@@ -77,65 +174,183 @@ public final class Main {
 
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
+     *  results to _output.  Input is handled one line at a time: blank
+     *  lines are echoed, lines whose first word is "*" set up the machine,
+     *  and all other lines are converted. */
     private void process() {
-        if (!(_input.hasNext("\\*"))) {
-            throw error("empty file");
+        boolean started = false, pending = false;
+        int leadingBlanks = 0;
+        Machine machine = null;
+        CompiledMachine compiled = null;
+        RuntimeException failure = null;
+
+        if (_pipeline != null) {
+            _pipeline.start();
         }
-        Machine machine = readConfig();
-
-        while (_input.hasNext()) {
-            while (_input.hasNext("\\*")) {
-                String setting = _input.nextLine();
-                while (setting.equals("")) {
-                    _output.println();
-                    setting = _input.nextLine();
+        try {
+            while (_input.next()) {
+                if (_input.firstNonBlank() == _input.length()) {
+                    if (started) {
+                        newLine();
+                    } else {
+                        leadingBlanks += 1;
+                    }
+                } else if (_input.isSettingLine()) {
+                    if (machine == null) {
+                        machine = readConfig();
+                        for (; leadingBlanks > 0; leadingBlanks -= 1) {
+                            newLine();
+                        }
+                    }
+                    setUp(machine, _input.lineString());
+                    started = pending = true;
+                } else if (!started) {
+                    throw error("empty file");
+                } else {
+                    if (pending) {
+                        compiled = checkedCompile(machine);
+                        pending = false;
+                    }
+                    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+                    FlightEvents.Convert event = null;
+                    if (FlightEvents.convertEnabled()) {
+                        event = new FlightEvents.Convert();
+                        event.begin();
+                    }
+                    convertLine(compiled, _input.line(), _input.length());
+                    if (Metrics.ENABLED) {
+                        Metrics.message(System.nanoTime() - start);
+                    }
+                    if (event != null && event.shouldCommit()) {
+                        event.messageLength = _input.length();
+                        event.rotors = FlightEvents.rotorNames(machine);
+                        event.alphabetSize = _alphabet.size();
+                        event.commit();
+                    }
                 }
-                setUp(machine, setting);
             }
-            for (int i = 1; i < machine.numRotors() - machine.numPawls(); i++) {
-                if (machine.getRotor(i).rotates()) {
-                    throw error("moving rotor in wrong position");
-                }
+            if (!started) {
+                throw error("empty file");
+            } else if (pending) {
+                checkedCompile(machine);
+            }
+        } catch (RuntimeException excp) {
+            failure = excp;
+            throw excp;
+        } finally {
+            closeOutput(failure);
+        }
+    }
+
+    /** Write out my output and release _pipeline or _mappedOutput.  If
+     *  that fails, the failure is thrown, unless FAILURE, the exception
+     *  already ending my run, is not null, in which case it is added to
+     *  FAILURE as suppressed. */
+    private void closeOutput(RuntimeException failure) {
+        RuntimeException first = failure;
+        try {
+            flush();
+        } catch (RuntimeException excp) {
+            first = suppress(first, excp);
+        }
+        try {
+            if (_pipeline != null) {
+                _pipeline.finish();
+            } else if (_mappedOutput != null) {
+                _mappedOutput.close();
             }
+        } catch (RuntimeException excp) {
+            first = suppress(first, excp);
+        }
+        if (first != failure) {
+            throw first;
+        }
+    }
 
-            String inputLine;
-            inner:
-            {
-                while (_input.hasNextLine()) {
-                    if (_input.hasNext("\\*")) {
-                        break inner;
-                    }
-                    inputLine = _input.nextLine().replaceAll(" ", "");
-                    String converted = machine.convert(inputLine);
-                    printMessageLine(converted);
-                }
+    /** Return FIRST with LATER added to it as suppressed, or LATER if
+     *  FIRST is null. */
+    private static RuntimeException suppress(RuntimeException first,
+                                             RuntimeException later) {
+        if (first == null) {
+            return later;
+        }
+        first.addSuppressed(later);
+        return first;
+    }
+
+    /** Return a compiled copy of M, after checking that its fixed slots
+     *  hold no moving rotors. */
+    private CompiledMachine checkedCompile(Machine M) {
+        for (int i = 1; i < M.numRotors() - M.numPawls(); i++) {
+            if (M.getRotor(i).rotates()) {
+                throw error("moving rotor in wrong position");
             }
         }
+        return M.compile();
+    }
+
+    /** Convert the first LEN characters of LINE with M, ignoring
+     *  whitespace, and write the result in groups of five. */
+    private void convertLine(CompiledMachine M, char[] line, int len) {
+        int space = CompiledMachine.messageSpace(len, 5);
+        if (_outLength + space > _outBuffer.length) {
+            flush();
+        }
+        if (space <= _outBuffer.length) {
+            _outLength += M.convertMessage(line, 0, len, _outBuffer,
+                                           _outLength, 5);
+        } else {
+            if (_lineBuffer.length < space) {
+                _lineBuffer = new char[space];
+            }
+            int n = M.convertMessage(line, 0, len, _lineBuffer, 0, 5);
+            for (int i = 0; i < n; i += 1) {
+                write(_lineBuffer[i]);
+            }
+        }
+        newLine();
     }
 
     /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
+     *  file _config, or from the compiled image _image if there is one. */
     private Machine readConfig() {
-        try {
-            _alphabet = new Alphabet(_config.nextLine());
-            int numRotors = _config.nextInt();
-            int numPawls = _config.nextInt();
+        FlightEvents.ConfigParse event = new FlightEvents.ConfigParse();
+        event.begin();
+        Machine machine;
+        if (_image != null) {
+            machine = ConfigImage.load(_image);
+            _alphabet = machine.alphabet();
+        } else {
+            try {
+                _alphabet = new Alphabet(_config.nextLine());
+                int numRotors = _config.nextInt();
+                int numPawls = _config.nextInt();
 
-            ArrayList<Rotor> allRotors = new ArrayList<Rotor>();
+                ArrayList<Rotor> allRotors = new ArrayList<Rotor>();
 
-            while (_config.hasNext()) {
-                allRotors.add(readRotor());
-            }
+                while (_config.hasNext()) {
+                    allRotors.add(readRotor());
+                }
 
-            return new Machine(_alphabet, numRotors, numPawls, allRotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+                machine = new Machine(_alphabet, numRotors, numPawls,
+                                      allRotors);
+            } catch (NoSuchElementException excp) {
+                throw error("configuration file truncated");
+            }
+        }
+        if (event.shouldCommit()) {
+            event.format = _image != null ? "image" : "text";
+            event.alphabetSize = _alphabet.size();
+            event.rotors = machine.allRotors().size();
+            event.commit();
         }
+        return machine;
     }
 
     /** Return a rotor, reading its description from _config. */
     private Rotor readRotor() {
+        FlightEvents.RotorParse event = new FlightEvents.RotorParse();
+        event.begin();
         try {
             String name = _config.next();
             if (!(name.matches("\\w+"))) {
@@ -150,6 +365,11 @@ public final class Main {
             }
 
             Permutation perm = new Permutation(cycles, _alphabet);
+            if (event.shouldCommit()) {
+                event.rotor = name;
+                event.alphabetSize = _alphabet.size();
+                event.commit();
+            }
 
             char type = desc.charAt(0);
             if (type == 'M') {
@@ -169,66 +389,121 @@ public final class Main {
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
     private void setUp(Machine M, String settings) {
-        try {
-            Scanner setter = new Scanner(settings);
-            if (!(setter.next().equals("*"))) {
-                throw error("Invalid input start, needs *");
-            }
-
-            String[] rotorNames = new String[M.numRotors()];
-            for (int i = 0; i < M.numRotors(); i += 1) {
-                rotorNames[i] = setter.next();
-            }
-
-            String setting = setter.next();
-            M.insertRotors(rotorNames);
+        FlightEvents.SetUp event = new FlightEvents.SetUp();
+        event.begin();
+        Setting setting = Setting.parse(settings, M.numRotors());
+        if (Metrics.ENABLED) {
+            Metrics.settingParsed();
+        }
+        M.insertRotors(setting.rotors());
+        M.setRotors(setting.setting());
+        if (setting.rings() != null) {
+            M.setRings(setting.rings());
+        }
+        M.setPlugboard(new Permutation(setting.plugboard(), _alphabet));
+        if (event.shouldCommit()) {
+            event.rotors = String.join(" ", setting.rotors());
+            event.alphabetSize = _alphabet.size();
+            event.commit();
+        }
+    }
 
-            if (setting.length() != M.numRotors() - 1) {
-                throw error("bad settings length");
+    /** Print MSG in groups of five (except that the last group may
+     *  have fewer letters). */
+    public void printMessageLine(String msg) {
+        for (int i = 0; i < msg.length(); i += 1) {
+            if (i > 0 && i % 5 == 0) {
+                write(' ');
             }
+            write(msg.charAt(i));
+        }
+        newLine();
+    }
 
-            M.setRotors(setting);
-
-
+    /** Append C to my output buffer, writing the buffer out when full. */
+    private void write(char c) {
+        if (_outLength == _outBuffer.length) {
+            flush();
+        }
+        _outBuffer[_outLength] = c;
+        _outLength += 1;
+    }
 
-            if (setter.hasNext("\\w+")) {
-                String ringSetting = setter.next();
-                M.setRings(ringSetting);
-            }
+    /** Append a line terminator to my output buffer. */
+    private void newLine() {
+        for (int i = 0; i < LINE_SEPARATOR.length(); i += 1) {
+            write(LINE_SEPARATOR.charAt(i));
+        }
+    }
 
-            String plugCycles = "";
-            while (setter.hasNext("\\(\\w*\\)")) {
-                plugCycles += setter.next();
+    /** Write out and empty my output buffer, or hand it to _pipeline to
+     *  be written. */
+    private void flush() {
+        if (_mappedOutput != null) {
+            _mappedOutput.write(_outBuffer, 0, _outLength);
+            _outLength = 0;
+            return;
+        } else if (_pipeline != null) {
+            if (_outLength > 0) {
+                _outBuffer = _pipeline.output(_outBuffer, _outLength);
+                _outLength = 0;
             }
-            Permutation plugPerm = new Permutation(plugCycles, _alphabet);
-
-            M.setPlugboard(plugPerm);
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor settings");
+            return;
+        }
+        try {
+            _writer.write(_outBuffer, 0, _outLength);
+            _writer.flush();
+            _outLength = 0;
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
         }
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    public void printMessageLine(String msg) {
-        if (msg.length() <= 5) {
-            _output.println(msg);
-        } else {
-            _output.print(msg.substring(0, 5) + " ");
-            printMessageLine(msg.substring(5));
-        }
+    /** Line terminator used in the output. */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
 
-    }
+    /** True iff input and output files should be mapped into memory
+     *  where possible.  Set the system property enigma.map to false to
+     *  read and write them through streams instead.  Mapping is not used
+     *  with a Pipeline. */
+    private static final boolean MAPPED = !Pipeline.ENABLED
+        && Boolean.parseBoolean(System.getProperty("enigma.map", "true"));
+
+    /** Size of the output buffer. */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
 
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private LineReader _input;
 
     /** Source of machine configuration. */
     private Scanner _config;
 
+    /** Compiled configuration image, used instead of _config if not
+     *  null. */
+    private Path _image;
+
     /** File for encoded/decoded messages. */
     private PrintStream _output;
+
+    /** Output file mapped into memory, used instead of _output if not
+     *  null. */
+    private MappedOutput _mappedOutput;
+
+    /** Character encoder writing to _output. */
+    private Writer _writer;
+
+    /** Reads and writes on threads of its own if not null. */
+    private Pipeline _pipeline;
+
+    /** Converted characters not yet written to _writer. */
+    private char[] _outBuffer = new char[OUTPUT_BUFFER_SIZE];
+
+    /** Scratch space for converted lines too long for _outBuffer. */
+    private char[] _lineBuffer = new char[0];
+
+    /** Number of characters in _outBuffer. */
+    private int _outLength;
 }
@@ -0,0 +1,156 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import static enigma.EnigmaException.*;
+
+/** Text output written straight into a file mapped into memory, a
+ *  window at a time.  ASCII characters are stored as single bytes with
+ *  no encoder involved; each run of others is encoded with the output
+ *  charset in one call, so surrogate pairs stay whole, and a high
+ *  surrogate ending one write is held for the next.  Characters that
+ *  are malformed or cannot be encoded become the charset's replacement.
+ *  The file grows a window at a time and is cut back to the text
+ *  written when the output is closed, so a file left by a crash may end
+ *  in zero bytes.
+ *  @author Nitin Nazeer
+ */
+final class MappedOutput implements Closeable {
+
+    /** Default number of bytes of the file mapped at once. */
+    static final int WINDOW = 1 << 26;
+
+    /** Output to FILE, which must be open for reading and writing and is
+     *  replaced, in CHARSET, mapping WINDOW bytes at a time. */
+    MappedOutput(FileChannel file, Charset charset, int window) {
+        _file = file;
+        _encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _window = window;
+        try {
+            file.truncate(0);
+            _map = file.map(FileChannel.MapMode.READ_WRITE, 0, window);
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Write LEN characters of CHARS starting at OFF. */
+    void write(char[] chars, int off, int len) {
+        int end = off + len;
+        int i = off;
+        if (len > 0 && _carry != 0) {
+            char[] pair = {_carry, chars[i]};
+            _carry = 0;
+            if (Character.isLowSurrogate(chars[i])) {
+                encode(pair, 0, 2);
+                i += 1;
+            } else {
+                encode(pair, 0, 1);
+            }
+        }
+        if (i < end && Character.isHighSurrogate(chars[end - 1])) {
+            end -= 1;
+        }
+        MappedByteBuffer map = _map;
+        while (i < end) {
+            if (!map.hasRemaining()) {
+                map = remap();
+            }
+            int stop = i + Math.min(end - i, map.remaining());
+            for (char c; i < stop && (c = chars[i]) < 0x80; i += 1) {
+                map.put((byte) c);
+            }
+            int j = i;
+            while (j < end && chars[j] >= 0x80) {
+                j += 1;
+            }
+            if (j > i) {
+                encode(chars, i, j - i);
+                map = _map;
+                i = j;
+            }
+        }
+        if (end < off + len) {
+            _carry = chars[end];
+        }
+    }
+
+    /** Write the LEN characters of CHARS starting at I, which are not
+     *  ASCII, through my encoder. */
+    private void encode(char[] chars, int i, int len) {
+        CharBuffer in = CharBuffer.wrap(chars, i, len);
+        _encoder.reset();
+        CoderResult result;
+        while ((result = _encoder.encode(in, _map, true)).isOverflow()) {
+            remap();
+        }
+        if (result.isError()) {
+            throw error("could not encode output");
+        }
+        while (_encoder.flush(_map).isOverflow()) {
+            remap();
+        }
+    }
+
+    /** Map the window following the bytes written so far, and return
+     *  it. */
+    private MappedByteBuffer remap() {
+        try {
+            _base += _map.position();
+            _map = _file.map(FileChannel.MapMode.READ_WRITE, _base,
+                             _window);
+            return _map;
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the number of bytes written. */
+    long size() {
+        return _base + _map.position();
+    }
+
+    /** Cut my file back to the bytes written, and close it.  A high
+     *  surrogate held from the last write is written as malformed. */
+    @Override
+    public void close() {
+        if (_carry != 0) {
+            encode(new char[] {_carry}, 0, 1);
+            _carry = 0;
+        }
+        try {
+            _file.truncate(size());
+            _file.close();
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** The output file. */
+    private final FileChannel _file;
+
+    /** Encoder for non-ASCII characters. */
+    private final CharsetEncoder _encoder;
+
+    /** Number of bytes mapped at once. */
+    private final int _window;
+
+    /** The currently mapped window. */
+    private MappedByteBuffer _map;
+
+    /** Offset in _file of the start of _map. */
+    private long _base;
+
+    /** A high surrogate ending the last write, or 0. */
+    private char _carry;
+}
@@ -0,0 +1,132 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MappedOutput class and mapped
+ *  LineReaders.
+ *  @author Nitin Nazeer
+ */
+public class MappedOutputTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return text of N lines of varying lengths, some with non-ASCII
+     *  characters. */
+    private String lines(int n) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            result.append(HIAWATHA, 0, i % 53);
+            if (i % 10 == 3) {
+                result.append("\u00e9\u3000X");
+            }
+            result.append(i % 4 == 0 ? "\r\n" : "\n");
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkMappedLines() throws IOException {
+        String text = lines(500) + "LAST";
+        Path file = Files.createTempFile("mapped", ".txt");
+        try {
+            Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+            try (FileChannel in = FileChannel.open(file)) {
+                LineReader lines =
+                    new LineReader(in, StandardCharsets.UTF_8, 100);
+                String[] expected = text.split("\r?\n");
+                for (String line : expected) {
+                    assertTrue(lines.next());
+                    assertEquals(line, lines.lineString());
+                }
+                assertFalse(lines.next());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkMappedLineTooLong() throws IOException {
+        Path file = Files.createTempFile("mapped", ".txt");
+        try {
+            Files.write(file, (HIAWATHA + "\n").getBytes());
+            try (FileChannel in = FileChannel.open(file)) {
+                new LineReader(in, StandardCharsets.UTF_8, 100).next();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void checkMappedOutput() throws IOException {
+        String text = lines(500);
+        Path file = Files.createTempFile("mapped", ".txt");
+        try {
+            Files.write(file, "old contents".getBytes());
+            FileChannel out = FileChannel.open(file,
+                                               StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+            MappedOutput mapped =
+                new MappedOutput(out, StandardCharsets.UTF_8, 64);
+            char[] chars = text.toCharArray();
+            for (int i = 0; i < chars.length; i += 37) {
+                mapped.write(chars, i, Math.min(37, chars.length - i));
+            }
+            mapped.close();
+            assertEquals(text, new String(Files.readAllBytes(file),
+                                          StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void checkMappedSurrogates() throws IOException {
+        String text = "A\ud83d\ude00B\u00e9\ud83d\ude01\ud83d\ude02C"
+            + "\ud83dD\ude03E\ud83d";
+        Path file = Files.createTempFile("mapped", ".txt");
+        try {
+            FileChannel out = FileChannel.open(file,
+                                               StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+            MappedOutput mapped =
+                new MappedOutput(out, StandardCharsets.UTF_8, 8);
+            char[] chars = text.toCharArray();
+            mapped.write(chars, 0, 2);
+            mapped.write(chars, 2, 4);
+            mapped.write(chars, 6, chars.length - 6);
+            mapped.close();
+            assertArrayEquals(text.getBytes(StandardCharsets.UTF_8),
+                              Files.readAllBytes(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void checkAsciiCompatible() {
+        assertTrue(LineReader.asciiCompatible(StandardCharsets.UTF_8));
+        assertTrue(LineReader.asciiCompatible(StandardCharsets.ISO_8859_1));
+        assertFalse(LineReader.asciiCompatible(StandardCharsets.UTF_16));
+    }
+
+}
@@ -0,0 +1,198 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static enigma.EnigmaException.*;
+
+/** Process-wide counters for the conversion hot paths: characters
+ *  converted, advances of each rotor slot, double steps, setting lines
+ *  parsed and per-message latencies.  Collection is off unless the
+ *  system property enigma.metrics is "true"; every call site tests
+ *  ENABLED, a constant, first, so when it is off the JIT removes the
+ *  instrumentation entirely.  Counters are LongAdders, which stripe
+ *  their updates across cells so that threads converting at once do not
+ *  contend, and latencies go into a lock-free LatencyHistogram.  The
+ *  counters can be read through the JMX MBean enigma:type=Metrics or as
+ *  a text report, optionally printed periodically.
+ *  @author Nitin Nazeer
+ */
+final class Metrics implements MetricsMBean {
+
+    /** True iff metrics are collected. */
+    static final boolean ENABLED = Boolean.getBoolean("enigma.metrics");
+
+    /** Number of rotor slots counted separately; slots beyond the last
+     *  are counted with it. */
+    static final int MAX_SLOTS = 16;
+
+    /** Name of my MBean. */
+    static final String OBJECT_NAME = "enigma:type=Metrics";
+
+    /** The single instance. */
+    private static final Metrics INSTANCE = new Metrics();
+
+    /** The only instance is INSTANCE. */
+    private Metrics() {
+        for (int i = 0; i < MAX_SLOTS; i += 1) {
+            _advances[i] = new LongAdder();
+        }
+    }
+
+    /** Return the process-wide metrics. */
+    static Metrics get() {
+        return INSTANCE;
+    }
+
+    /** Count one character converted. */
+    static void converted() {
+        INSTANCE._characters.increment();
+    }
+
+    /** Count one advance of the rotor in slot I. */
+    static void advanced(int i) {
+        INSTANCE._advances[Math.min(i, MAX_SLOTS - 1)].increment();
+    }
+
+    /** Count a middle rotor advancing because of its own notch. */
+    static void doubleStepped() {
+        INSTANCE._doubleSteps.increment();
+    }
+
+    /** Count one setting line parsed. */
+    static void settingParsed() {
+        INSTANCE._settings.increment();
+    }
+
+    /** Record a message that took NANOS nanoseconds to convert. */
+    static void message(long nanos) {
+        INSTANCE._latency.record(nanos);
+    }
+
+    /** Register me with the platform MBean server, if I am not already
+     *  registered. */
+    static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException excp) {
+            throw error("could not register metrics: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** Print report() to OUT every PERIOD milliseconds, on a daemon
+     *  thread, until the returned future is cancelled. */
+    static ScheduledFuture<?> reportEvery(PrintStream out, long period) {
+        ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "enigma-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        return timer.scheduleAtFixedRate(() -> out.println(INSTANCE.report()),
+                                         period, period,
+                                         TimeUnit.MILLISECONDS);
+    }
+
+    /** Return the histogram of message latencies. */
+    LatencyHistogram latency() {
+        return _latency;
+    }
+
+    @Override
+    public long getCharactersConverted() {
+        return _characters.sum();
+    }
+
+    @Override
+    public long[] getRotorAdvances() {
+        long[] result = new long[MAX_SLOTS];
+        for (int i = 0; i < MAX_SLOTS; i += 1) {
+            result[i] = _advances[i].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public long getDoubleSteps() {
+        return _doubleSteps.sum();
+    }
+
+    @Override
+    public long getSettingLinesParsed() {
+        return _settings.sum();
+    }
+
+    @Override
+    public long getMessages() {
+        return _latency.count();
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+        return _latency.percentile(0.50);
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+        return _latency.percentile(0.99);
+    }
+
+    @Override
+    public String report() {
+        StringBuilder advances = new StringBuilder();
+        long[] counts = getRotorAdvances();
+        int last = counts.length;
+        while (last > 1 && counts[last - 1] == 0) {
+            last -= 1;
+        }
+        for (int i = 0; i < last; i += 1) {
+            advances.append(i == 0 ? "" : ",").append(counts[i]);
+        }
+        return String.format("characters=%d advances=[%s] doubleSteps=%d"
+                             + " settings=%d messages=%d p50=%.1fus"
+                             + " p99=%.1fus",
+                             getCharactersConverted(), advances,
+                             getDoubleSteps(), getSettingLinesParsed(),
+                             getMessages(), getLatencyP50Nanos() / 1e3,
+                             getLatencyP99Nanos() / 1e3);
+    }
+
+    @Override
+    public void reset() {
+        _characters.reset();
+        for (LongAdder a : _advances) {
+            a.reset();
+        }
+        _doubleSteps.reset();
+        _settings.reset();
+        _latency.reset();
+    }
+
+    /** Characters converted. */
+    private final LongAdder _characters = new LongAdder();
+
+    /** Advances of each slot. */
+    private final LongAdder[] _advances = new LongAdder[MAX_SLOTS];
+
+    /** Double steps. */
+    private final LongAdder _doubleSteps = new LongAdder();
+
+    /** Setting lines parsed. */
+    private final LongAdder _settings = new LongAdder();
+
+    /** Message latencies. */
+    private final LatencyHistogram _latency = new LatencyHistogram();
+}
@@ -0,0 +1,34 @@
+package enigma;
+
+/** The management interface through which JMX clients read Metrics.
+ *  @author Nitin Nazeer
+ */
+public interface MetricsMBean {
+
+    /** Return the number of characters converted. */
+    long getCharactersConverted();
+
+    /** Return the number of times each rotor slot has advanced. */
+    long[] getRotorAdvances();
+
+    /** Return the number of double steps of middle rotors. */
+    long getDoubleSteps();
+
+    /** Return the number of setting lines parsed. */
+    long getSettingLinesParsed();
+
+    /** Return the number of messages timed. */
+    long getMessages();
+
+    /** Return the median message latency in nanoseconds. */
+    long getLatencyP50Nanos();
+
+    /** Return the 99th percentile message latency in nanoseconds. */
+    long getLatencyP99Nanos();
+
+    /** Return a text report of all counters. */
+    String report();
+
+    /** Reset all counters to 0. */
+    void reset();
+}
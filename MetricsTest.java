@@ -0,0 +1,83 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** The suite of all JUnit tests for the Metrics and LatencyHistogram
+ *  classes.
+ *  @author Nitin Nazeer
+ */
+public class MetricsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkBuckets() {
+        for (long v : new long[] {0, 1, 63, 64, 65, 1000, 123456789,
+                                  Long.MAX_VALUE}) {
+            int k = LatencyHistogram.bucket(v);
+            assertTrue(LatencyHistogram.lowest(k) <= v);
+            assertTrue(v - LatencyHistogram.lowest(k)
+                       <= LatencyHistogram.lowest(k) / 32);
+            if (v < Long.MAX_VALUE) {
+                assertTrue(LatencyHistogram.bucket(v + 1) >= k);
+            }
+        }
+        assertEquals(LatencyHistogram.bucket(63) + 1,
+                     LatencyHistogram.bucket(64));
+    }
+
+    @Test
+    public void checkPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.percentile(0.5));
+        for (int v = 1; v <= 1000; v += 1) {
+            h.record(v * 1000L);
+        }
+        assertEquals(1000, h.count());
+        assertEquals(500500.0, h.mean(), 1e-6);
+        long p50 = h.percentile(0.5), p99 = h.percentile(0.99);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 33 / 32);
+        assertTrue(p99 >= 990000 && p99 <= 990000 * 33 / 32);
+        h.reset();
+        assertEquals(0, h.count());
+    }
+
+    @Test
+    public void checkCountersAndMBean() throws Exception {
+        Metrics metrics = Metrics.get();
+        metrics.reset();
+        Metrics.converted();
+        Metrics.converted();
+        Metrics.advanced(2);
+        Metrics.advanced(Metrics.MAX_SLOTS + 5);
+        Metrics.doubleStepped();
+        Metrics.settingParsed();
+        Metrics.message(2000);
+        assertEquals(2, metrics.getCharactersConverted());
+        assertEquals(1, metrics.getRotorAdvances()[2]);
+        assertEquals(1, metrics.getRotorAdvances()[Metrics.MAX_SLOTS - 1]);
+        assertTrue(metrics.report().startsWith(
+            "characters=2 advances=[0,0,1,"));
+
+        Metrics.register();
+        Metrics.register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+        assertEquals(1L, server.getAttribute(name, "DoubleSteps"));
+        assertEquals(1L, server.getAttribute(name, "Messages"));
+        server.invoke(name, "reset", null, null);
+        assertEquals(0L, server.getAttribute(name, "CharactersConverted"));
+    }
+
+}
@@ -7,8 +7,8 @@ import static enigma.EnigmaException.*;
  */
 class MovingRotor extends Rotor {
 
-    /** The notches in my Rotor.  */
-    private final String notches;
+    /** NOTCHES[P] is true iff setting P is a notch of my Rotor. */
+    private final boolean[] notches;
 
     /**
      * @param name the name of the rotor
@@ -17,7 +17,16 @@ class MovingRotor extends Rotor {
      */
     MovingRotor(String name, Permutation perm, String notchess) {
         super(name, perm);
-        this.notches = notchess;
+        this.notches = new boolean[perm.size()];
+        Alphabet alpha = perm.alphabet();
+        int[] symbols = alpha.maxCodePoint() > Character.MAX_VALUE
+            ? notchess.codePoints().toArray() : notchess.chars().toArray();
+        for (int symbol : symbols) {
+            int posn = alpha.indexOf(symbol);
+            if (posn >= 0) {
+                this.notches[posn] = true;
+            }
+        }
     }
 
     @Override
@@ -26,18 +35,12 @@ class MovingRotor extends Rotor {
     }
 
     @Override
-    boolean atNotch() {
-        char cposn = alphabet().toChar(
-                permutation().wrap(this.posn()));
-        return this.notches.contains(String.valueOf(cposn));
+    boolean atNotch(int posnn) {
+        return this.notches[permutation().wrap(posnn)];
     }
 
     @Override
     void advance() {
-        if (this.posn() == size() - 1) {
-            set(0);
-        } else {
-            set(this.posn() + 1);
-        }
+        set(this.posn() == size() - 1 ? 0 : this.posn() + 1);
     }
 }
@@ -94,6 +94,16 @@ public class MovingRotorTest {
         assertTrue(rotor.atNotch());
     }
 
+    @Test
+    public void checkNotchBySetting() {
+        setRotor("VI", NAVALA, "ZM");
+        assertTrue(rotor.atNotch(12));
+        assertTrue(rotor.atNotch(25));
+        assertTrue(rotor.atNotch(-1));
+        assertFalse(rotor.atNotch(13));
+        assertFalse(rotor.atNotch());
+    }
+
     @Test
     public void checkRing() {
         setRotor("III", NAVALA, "V");
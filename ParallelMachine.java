@@ -0,0 +1,125 @@
+package enigma;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.*;
+
+/** Converts long messages by splitting them into chunks that are
+ *  converted concurrently.  Each chunk is converted by its own copy of a
+ *  CompiledMachine, sought forward to the chunk's first character, so the
+ *  result is identical to converting the whole message in sequence.
+ *  @author Nitin Nazeer
+ */
+final class ParallelMachine {
+
+    /** Default length below which messages are converted sequentially. */
+    static final int DEFAULT_THRESHOLD = 1 << 14;
+
+    /** A parallel converter that advances MACHINE, using POOL for
+     *  messages of at least THRESHOLD characters. */
+    ParallelMachine(CompiledMachine machine, ForkJoinPool pool,
+                    int threshold) {
+        if (threshold < 1) {
+            throw error("threshold must be positive");
+        }
+        _machine = machine;
+        _pool = pool;
+        _threshold = threshold;
+    }
+
+    /** A parallel converter that advances MACHINE, using the common
+     *  pool and the default threshold. */
+    ParallelMachine(CompiledMachine machine) {
+        this(machine, ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /** Return the machine whose settings I advance. */
+    CompiledMachine machine() {
+        return _machine;
+    }
+
+    /** Returns the encoding/decoding of MSG, updating the settings of
+     *  my machine exactly as CompiledMachine.convert(MSG) would. */
+    String convert(String msg) {
+        char[] chars = msg.toCharArray();
+        convert(chars, 0, chars.length);
+        return new String(chars);
+    }
+
+    /** Convert the LEN characters of BUF starting at OFF in place,
+     *  updating the settings of my machine accordingly.  All of them must
+     *  be in my alphabet. */
+    void convert(char[] buf, int off, int len) {
+        if (len < _threshold) {
+            for (int i = off; i < off + len; i += 1) {
+                buf[i] = _machine.convert(buf[i]);
+            }
+        } else {
+            Alphabet alpha = _machine.alphabet();
+            for (int i = off; i < off + len; i += 1) {
+                if (alpha.toInt(buf[i]) < 0) {
+                    throw error("character '%c' not in alphabet", buf[i]);
+                }
+            }
+            _pool.invoke(new Chunk(_machine.copy(), buf, off, off, len));
+            _machine.seek(len);
+        }
+    }
+
+    /** A task converting part of a message in place. */
+    private final class Chunk extends RecursiveAction {
+
+        /** A task converting the LEN characters of BUF starting at OFF,
+         *  where START is the index of the message's first character and
+         *  ORIGIN is a machine in the settings for that character. */
+        Chunk(CompiledMachine origin, char[] buf, int start,
+              int off, int len) {
+            _origin = origin;
+            _buf = buf;
+            _start = start;
+            _off = off;
+            _len = len;
+        }
+
+        @Override
+        protected void compute() {
+            if (_len <= _threshold) {
+                CompiledMachine m = _origin.copy();
+                m.seek(_off - _start);
+                for (int i = _off; i < _off + _len; i += 1) {
+                    _buf[i] = m.convert(_buf[i]);
+                }
+            } else {
+                int half = _len / 2;
+                invokeAll(new Chunk(_origin, _buf, _start, _off, half),
+                          new Chunk(_origin, _buf, _start, _off + half,
+                                    _len - half));
+            }
+        }
+
+        /** Machine in the settings for the message's first character. */
+        private final CompiledMachine _origin;
+
+        /** Characters being converted. */
+        private final char[] _buf;
+
+        /** Index of the message's first character in _buf. */
+        private final int _start;
+
+        /** Index of my first character in _buf. */
+        private final int _off;
+
+        /** Number of characters I convert. */
+        private final int _len;
+    }
+
+    /** Machine whose settings I advance. */
+    private final CompiledMachine _machine;
+
+    /** Pool running the chunk tasks. */
+    private final ForkJoinPool _pool;
+
+    /** Messages shorter than this are converted sequentially. */
+    private final int _threshold;
+}
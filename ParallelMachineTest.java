@@ -0,0 +1,88 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ParallelMachine class.
+ *  @author Nitin Nazeer
+ */
+public class ParallelMachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String[] STACK =
+        {"B", "Beta", "III", "IV", "I"};
+
+    /** Return a compiled machine in setting AQEV with rings BCDE. */
+    private CompiledMachine machine() {
+        return navalMachine(STACK, "AQEV", "BCDE",
+                            "(HQ) (EX) (IP) (TR) (BY)").compile();
+    }
+
+    /** Return COUNT copies of HIAWATHA. */
+    private String repeated(int count) {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < count; i += 1) {
+            msg.append(HIAWATHA);
+        }
+        return msg.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkMatchesSequential() {
+        String msg = repeated(50);
+        CompiledMachine sequential = machine();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelMachine parallel =
+                new ParallelMachine(machine(), pool, 97);
+            assertEquals(sequential.convert(msg), parallel.convert(msg));
+            assertEquals("settings after first message",
+                         sequential.convert(HIAWATHA),
+                         parallel.convert(HIAWATHA));
+            assertEquals(sequential.convert(msg), parallel.convert(msg));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void checkBelowThreshold() {
+        CompiledMachine sequential = machine();
+        ParallelMachine parallel = new ParallelMachine(machine());
+        assertEquals(sequential.convert(HIAWATHA),
+                     parallel.convert(HIAWATHA));
+    }
+
+    @Test
+    public void checkBadCharacter() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (int threshold : new int[] {10, 1000}) {
+                ParallelMachine parallel =
+                    new ParallelMachine(machine(), pool, threshold);
+                try {
+                    parallel.convert(repeated(2) + "a");
+                    fail("lower-case character accepted");
+                } catch (EnigmaException excp) {
+                    assertEquals("character 'a' not in alphabet",
+                                 excp.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
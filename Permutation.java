@@ -1,6 +1,9 @@
 package enigma;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
  *  to the characters of an alphabet.
@@ -8,8 +11,9 @@ import java.util.ArrayList;
  */
 class Permutation {
 
-    /** the list of cycles in the permutation. */
-    private final ArrayList<Alphabet> permList;
+    /** the list of cycles in the permutation, or null if it has not
+     *  been derived from the tables yet. */
+    private ArrayList<Alphabet> permList;
 
     /** Set this Permutation to that specified by CYCLES, a string in the
      *  form "(cccc) (cc) ..." where the c's are characters in ALPHABET, which
@@ -26,18 +30,76 @@ class Permutation {
             cycles = cycles.substring(1, cycles.length() - 1);
         }
 
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i += 1) {
+            _forward[i] = i;
+            _inverse[i] = i;
+        }
+
         String[] permArray = cycles.split("[)][(]");
-        this.permList = new ArrayList();
+        this.permList = new ArrayList<>();
         for (String s : permArray) {
-            this.permList.add(new Alphabet(s));
+            addCycle(s);
+        }
+    }
+
+
+    /** Set this Permutation to the one mapping each index K of ALPHABET
+     *  to TABLE[K], which must be a permutation of 0..ALPHABET size - 1.
+     *  TABLE is copied.  No cycles are parsed; they are derived from the
+     *  table only if asked for. */
+    Permutation(int[] table, Alphabet alphabet) {
+        _alphabet = alphabet;
+        if (table.length != alphabet.size()) {
+            throw error("permutation table has wrong size");
+        }
+        _forward = table.clone();
+        _inverse = new int[_forward.length];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < _forward.length; i += 1) {
+            int to = _forward[i];
+            if (to < 0 || to >= _inverse.length || _inverse[to] >= 0) {
+                throw error("permutation table is not a permutation");
+            }
+            _inverse[to] = i;
         }
     }
 
+    /** Return my cycles, deriving them from _forward if they were not
+     *  given. */
+    private ArrayList<Alphabet> cycles() {
+        if (this.permList == null) {
+            ArrayList<Alphabet> result = new ArrayList<>();
+            boolean[] seen = new boolean[_forward.length];
+            for (int i = 0; i < _forward.length; i += 1) {
+                if (!seen[i] && _forward[i] != i) {
+                    StringBuilder cycle = new StringBuilder();
+                    for (int k = i; !seen[k]; k = _forward[k]) {
+                        seen[k] = true;
+                        cycle.append(_alphabet.toChar(k));
+                    }
+                    result.add(new Alphabet(cycle.toString()));
+                }
+            }
+            this.permList = result;
+        }
+        return this.permList;
+    }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
+     *  c0c1...cm, recording each link in the forward and inverse tables. */
     private void addCycle(String cycle) {
         this.permList.add(new Alphabet(cycle));
+        for (int i = 0; i < cycle.length(); i += 1) {
+            int from = _alphabet.toInt(cycle.charAt(i));
+            int to = _alphabet.toInt(cycle.charAt((i + 1) % cycle.length()));
+            if (from < 0 || to < 0) {
+                throw error("cycle character not in alphabet: %s", cycle);
+            }
+            _forward[from] = to;
+            _inverse[to] = from;
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -57,11 +119,7 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        p = wrap(p);
-        char pChar = alphabet().toChar(p);
-        char permuted = permute(pChar);
-        return alphabet().toInt(permuted);
-
+        return _forward[wrap(p)];
     }
 
     /**
@@ -70,7 +128,7 @@ class Permutation {
      * @return the cycle that holds character C
      */
     Alphabet getCycle(char c) {
-        for (Alphabet perm : this.permList) {
+        for (Alphabet perm : cycles()) {
             if (perm.contains(c)) {
                 return perm;
             }
@@ -82,40 +140,36 @@ class Permutation {
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        c = wrap(c);
-        char cChar = alphabet().toChar(c);
-        char inverted = invert(cChar);
-        return alphabet().toInt(inverted);
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        Alphabet cycle = getCycle(p);
-        if (cycle == null || p == '\n') {
+        if (p == '\n' || !_alphabet.contains(p)) {
             return p;
         }
-        int index = cycle.toInt(p);
-
-        if (index == cycle.size() - 1) {
-            return cycle.toChar(0);
-        } else {
-            return cycle.toChar(index + 1);
-        }
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        Alphabet cycle = getCycle(c);
-        if (cycle == null || c == '\n') {
+        if (c == '\n' || !_alphabet.contains(c)) {
             return c;
         }
-        int index = cycle.toInt(c);
-        if (index == 0) {
-            return cycle.toChar(cycle.size() - 1);
-        } else {
-            return cycle.toChar(index - 1);
-        }
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
+    }
+
+    /** Return the table mapping each index to its image.  The result
+     *  is shared and must not be modified. */
+    int[] forwardTable() {
+        return _forward;
+    }
+
+    /** Return the table mapping each index to its preimage.  The result
+     *  is shared and must not be modified. */
+    int[] inverseTable() {
+        return _inverse;
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -126,13 +180,12 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        int totalLength = 0;
-        for (Alphabet a : this.permList) {
-            if (a.size() != 1) {
-                totalLength += a.size();
+        for (int i = 0; i < _forward.length; i += 1) {
+            if (_forward[i] == i) {
+                return false;
             }
         }
-        return totalLength == alphabet().size();
+        return true;
     }
 
     /**
@@ -141,7 +194,7 @@ class Permutation {
      */
     public String toString() {
         String retMsg = "";
-        for (Alphabet perm : this.permList) {
+        for (Alphabet perm : cycles()) {
             retMsg += perm.toString() + " ";
         }
         return retMsg;
@@ -150,4 +203,10 @@ class Permutation {
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
+    /** _forward[K] is the index that index K maps to. */
+    private final int[] _forward;
+
+    /** _inverse[K] is the index that maps to index K. */
+    private final int[] _inverse;
+
 }
@@ -0,0 +1,267 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.locks.LockSupport;
+
+import static enigma.EnigmaException.*;
+
+/** Overlaps input, conversion and output by running reading and writing
+ *  on threads of their own.  A reader thread decodes the input into
+ *  blocks of characters, and a writer thread writes blocks of converted
+ *  text; the converting thread takes the first kind of block and hands
+ *  over the second.  Blocks travel through SpscRings and come back
+ *  through others to be reused, so a stage that gets DEPTH blocks ahead
+ *  waits for the next one to catch up.  Output blocks are written in
+ *  the order they are handed over, so the output is exactly what a
+ *  single thread would produce.
+ *  @author Nitin Nazeer
+ */
+final class Pipeline {
+
+    /** True iff Main should use a Pipeline, as requested by setting the
+     *  system property enigma.pipeline to true. */
+    static final boolean ENABLED = Boolean.getBoolean("enigma.pipeline");
+
+    /** Number of characters in a block. */
+    static final int BLOCK_SIZE = 1 << 16;
+
+    /** Number of blocks in flight in each direction. */
+    static final int DEPTH = 4;
+
+    /** A pipeline reading text in CHARSET from IN and writing converted
+     *  text to OUT. */
+    Pipeline(ReadableByteChannel in, Charset charset, Writer out) {
+        _in = in;
+        _decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _out = out;
+        for (int i = 0; i < DEPTH; i += 1) {
+            _empty.offer(new Block());
+            _spare.offer(new Block());
+        }
+        _reader = new Thread(this::readStage, "enigma-reader");
+        _writer = new Thread(this::writeStage, "enigma-writer");
+        _reader.setDaemon(true);
+        _writer.setDaemon(true);
+    }
+
+    /** A reusable block of LENGTH characters, or the end of a stream
+     *  if LENGTH is negative. */
+    private static final class Block {
+        /** Characters of the block. */
+        private char[] chars = new char[BLOCK_SIZE];
+        /** Number of characters in use. */
+        private int length;
+    }
+
+    /** Start the reader and writer threads. */
+    void start() {
+        _reader.start();
+        _writer.start();
+    }
+
+    /** Return the next block of input, or null at the end of the input
+     *  and on every later call.  The previous block returned is given
+     *  back to the reader, so it must no longer be used. */
+    CharBuffer input() {
+        if (_current != null) {
+            put(_empty, _current);
+            _current = null;
+        }
+        if (_inputEnded) {
+            return null;
+        }
+        _current = take(_filled);
+        if (_current == END) {
+            _current = null;
+            _inputEnded = true;
+            if (_readFailure != null) {
+                throw error("could not read input: %s", _readFailure);
+            }
+            return null;
+        }
+        return CharBuffer.wrap(_current.chars, 0, _current.length);
+    }
+
+    /** Hand the first LENGTH characters of CHARS to the writer, and
+     *  return an array of the same size to fill next. */
+    char[] output(char[] chars, int length) {
+        if (_writeFailure != null) {
+            throw error("could not write output: %s", _writeFailure);
+        }
+        Block block = take(_spare);
+        char[] result = block.chars;
+        if (result.length != chars.length) {
+            result = new char[chars.length];
+        }
+        block.chars = chars;
+        block.length = length;
+        put(_written, block);
+        return result;
+    }
+
+    /** Wait until every block handed to output has been written, then
+     *  stop both threads. */
+    void finish() {
+        put(_written, END);
+        try {
+            _writer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        _closed = true;
+        LockSupport.unpark(_reader);
+        if (_writeFailure != null) {
+            throw error("could not write output: %s", _writeFailure);
+        }
+    }
+
+    /** Decode my input into blocks until it is exhausted. */
+    private void readStage() {
+        ByteBuffer bytes = ByteBuffer.allocate(BLOCK_SIZE);
+        boolean eof = false, done = false;
+        try {
+            while (!done) {
+                Block block = take(_empty);
+                if (block == null) {
+                    return;
+                }
+                CharBuffer chars = CharBuffer.wrap(block.chars);
+                while (chars.position() == 0 && !done) {
+                    if (!eof) {
+                        eof = _in.read(bytes) < 0;
+                    }
+                    bytes.flip();
+                    boolean full =
+                        _decoder.decode(bytes, chars, eof).isOverflow();
+                    bytes.compact();
+                    if (eof && !full) {
+                        done = _decoder.flush(chars).isUnderflow();
+                    }
+                }
+                block.length = chars.position();
+                put(_filled, block);
+            }
+        } catch (IOException excp) {
+            _readFailure = excp.getMessage();
+        }
+        put(_filled, END);
+    }
+
+    /** Write blocks of output until the end marker arrives. */
+    private void writeStage() {
+        while (true) {
+            Block block = take(_written);
+            if (block == END) {
+                break;
+            }
+            if (_writeFailure == null) {
+                try {
+                    _out.write(block.chars, 0, block.length);
+                } catch (IOException excp) {
+                    _writeFailure = excp.getMessage();
+                }
+            }
+            put(_spare, block);
+        }
+        try {
+            _out.flush();
+        } catch (IOException excp) {
+            _writeFailure = excp.getMessage();
+        }
+    }
+
+    /** Append BLOCK to RING, waiting while it is full. */
+    private void put(SpscRing<Block> ring, Block block) {
+        for (int round = 0; !ring.offer(block) && !_closed; round += 1) {
+            idle(round);
+        }
+    }
+
+    /** Remove and return the first block in RING, waiting while it is
+     *  empty.  Returns null if the pipeline is finished first. */
+    private Block take(SpscRing<Block> ring) {
+        for (int round = 0; !_closed; round += 1) {
+            Block block = ring.poll();
+            if (block != null) {
+                return block;
+            }
+            idle(round);
+        }
+        return null;
+    }
+
+    /** Wait briefly, for longer as ROUND, the number of times in a row
+     *  a stage has found nothing to do, grows. */
+    private static void idle(int round) {
+        if (round < SPINS) {
+            Thread.onSpinWait();
+        } else if (round < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /** Number of busy waits before yielding. */
+    private static final int SPINS = 64;
+
+    /** Number of yields before parking. */
+    private static final int YIELDS = 16;
+
+    /** Longest park while waiting, in nanoseconds. */
+    private static final long PARK_NANOS = 50_000;
+
+    /** Marks the end of a stream of blocks. */
+    private static final Block END = new Block();
+
+    /** Source of input. */
+    private final ReadableByteChannel _in;
+
+    /** Decoder from the bytes of _in to characters. */
+    private final CharsetDecoder _decoder;
+
+    /** Destination of output. */
+    private final Writer _out;
+
+    /** Decoded input, from the reader to the converting thread. */
+    private final SpscRing<Block> _filled = new SpscRing<>(2 * DEPTH);
+
+    /** Used input blocks, back to the reader. */
+    private final SpscRing<Block> _empty = new SpscRing<>(2 * DEPTH);
+
+    /** Output, from the converting thread to the writer. */
+    private final SpscRing<Block> _written = new SpscRing<>(2 * DEPTH);
+
+    /** Written output blocks, back to the converting thread. */
+    private final SpscRing<Block> _spare = new SpscRing<>(2 * DEPTH);
+
+    /** Reader thread. */
+    private final Thread _reader;
+
+    /** Writer thread. */
+    private final Thread _writer;
+
+    /** Input block the converting thread is using, or null. */
+    private Block _current;
+
+    /** True once input() has seen the end of the input. */
+    private boolean _inputEnded;
+
+    /** True once the pipeline has finished. */
+    private volatile boolean _closed;
+
+    /** Message of a failed read, or null. */
+    private volatile String _readFailure;
+
+    /** Message of the first failed write, or null. */
+    private volatile String _writeFailure;
+}
@@ -0,0 +1,112 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Pipeline and SpscRing classes.
+ *  @author Nitin Nazeer
+ */
+public class PipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a pipeline reading TEXT and writing to OUT. */
+    private Pipeline pipeline(String text, StringWriter out) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return new Pipeline(
+            Channels.newChannel(new ByteArrayInputStream(bytes)),
+            StandardCharsets.UTF_8, out);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRingOrder() throws InterruptedException {
+        SpscRing<Integer> ring = new SpscRing<>(4);
+        int count = 100000;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i += 1) {
+                while (!ring.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        for (int i = 0; i < count; i += 1) {
+            Integer k;
+            while ((k = ring.poll()) == null) {
+                Thread.yield();
+            }
+            assertEquals(i, (int) k);
+        }
+        producer.join();
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void checkRingBounded() {
+        SpscRing<String> ring = new SpscRing<>(2);
+        assertTrue(ring.offer("a"));
+        assertTrue(ring.offer("b"));
+        assertFalse(ring.offer("c"));
+        assertEquals("a", ring.poll());
+        assertTrue(ring.offer("c"));
+        assertEquals("b", ring.poll());
+        assertEquals("c", ring.poll());
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void checkLinesThroughPipeline() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i += 1) {
+            text.append(HIAWATHA, 0, i % 97).append("\u00e9\r\n");
+        }
+        StringWriter out = new StringWriter();
+        Pipeline pipeline = pipeline(text.toString(), out);
+        LineReader lines = new LineReader(pipeline);
+        pipeline.start();
+        char[] buffer = new char[100];
+        StringBuilder expected = new StringBuilder();
+        int n;
+        for (n = 0; lines.next(); n += 1) {
+            String line = lines.lineString();
+            assertEquals(HIAWATHA.substring(0, n % 97) + "\u00e9", line);
+            line.getChars(0, line.length(), buffer, 0);
+            buffer = pipeline.output(buffer, line.length());
+            expected.append(line);
+        }
+        pipeline.finish();
+        assertEquals(5000, n);
+        assertEquals(expected.toString(), out.toString());
+    }
+
+    @Test
+    public void checkUnterminatedLastLine() {
+        Pipeline pipeline = pipeline("FROM HIS\nSHOULDER", new StringWriter());
+        LineReader lines = new LineReader(pipeline);
+        pipeline.start();
+        assertTrue(lines.next());
+        assertEquals("FROM HIS", lines.lineString());
+        assertTrue(lines.next());
+        assertEquals("SHOULDER", lines.lineString());
+        assertFalse(lines.next());
+        assertFalse(lines.next());
+        assertNull(pipeline.input());
+        pipeline.finish();
+    }
+
+}
@@ -114,6 +114,11 @@ class Rotor {
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
+        return atNotch(this.posn);
+    }
+
+    /** Returns true iff I would be at a notch in setting POSN. */
+    boolean atNotch(int posnn) {
         return false;
     }
 
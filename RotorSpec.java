@@ -0,0 +1,113 @@
+package enigma;
+
+/** The unchanging description of a rotor: its wiring as doubled index
+ *  tables and its notches.  A RotorSpec holds no setting, so one
+ *  instance may be shared freely between threads and machines.
+ *  @author Nitin Nazeer
+ */
+final class RotorSpec {
+
+    /** A description of ROTOR, ignoring its current setting and ring. */
+    RotorSpec(Rotor rotor) {
+        int n = rotor.size();
+        _name = rotor.name();
+        _forward = doubled(rotor.permutation().forwardTable());
+        _inverse = doubled(rotor.permutation().inverseTable());
+        _rotates = rotor.rotates();
+        _reflecting = rotor.reflecting();
+        _notches = new boolean[n];
+        for (int k = 0; k < n; k += 1) {
+            _notches[k] = rotor.atNotch(k);
+        }
+        _toNotch = distances(_notches);
+    }
+
+    /** Return TABLE followed by a second copy of itself, so that indices
+     *  up to twice its length need no reduction. */
+    private static int[] doubled(int[] table) {
+        int[] result = new int[2 * table.length];
+        System.arraycopy(table, 0, result, 0, table.length);
+        System.arraycopy(table, 0, result, table.length, table.length);
+        return result;
+    }
+
+    /** Return an array whose P-th entry is the number of single steps
+     *  from setting P to the first setting at which NOTCHES is true, or
+     *  -1 if it is never true. */
+    private static int[] distances(boolean[] notches) {
+        int n = notches.length;
+        int[] result = new int[n];
+        int next = -1;
+        for (int k = 2 * n - 1; k >= 0; k -= 1) {
+            if (notches[k % n]) {
+                next = k;
+            }
+            if (k < n) {
+                result[k] = next < 0 ? -1 : next - k;
+            }
+        }
+        return result;
+    }
+
+    /** Return my name. */
+    String name() {
+        return _name;
+    }
+
+    /** Return true iff I have a ratchet and can move. */
+    boolean rotates() {
+        return _rotates;
+    }
+
+    /** Return true iff I reflect. */
+    boolean reflecting() {
+        return _reflecting;
+    }
+
+    /** Return my forward table, doubled: entry K is the image of K modulo
+     *  the alphabet size.  The result is shared and must not be
+     *  modified. */
+    int[] forward() {
+        return _forward;
+    }
+
+    /** Return my inverse table, doubled as for forward().  The result is
+     *  shared and must not be modified. */
+    int[] inverse() {
+        return _inverse;
+    }
+
+    /** Return the table whose P-th entry is true iff setting P is a
+     *  notch.  The result is shared and must not be modified. */
+    boolean[] notches() {
+        return _notches;
+    }
+
+    /** Return the table whose P-th entry is the number of steps from
+     *  setting P to my next notch, or -1 if I have none.  The result is
+     *  shared and must not be modified. */
+    int[] toNotch() {
+        return _toNotch;
+    }
+
+    /** My name. */
+    private final String _name;
+
+    /** Doubled forward table. */
+    private final int[] _forward;
+
+    /** Doubled inverse table. */
+    private final int[] _inverse;
+
+    /** _notches[P] is true iff setting P is a notch. */
+    private final boolean[] _notches;
+
+    /** _toNotch[P] is the distance from setting P to the next notch. */
+    private final int[] _toNotch;
+
+    /** True iff I have a ratchet. */
+    private final boolean _rotates;
+
+    /** True iff I am a reflector. */
+    private final boolean _reflecting;
+}
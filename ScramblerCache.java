@@ -0,0 +1,191 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded, least-recently-used cache of composed scrambler tables.
+ *  Every rotor but the rightmost moves rarely, so the combined mapping
+ *  through those rotors, the reflector and back again is the same for
+ *  long runs of characters.  A CompiledMachine using this cache looks
+ *  that mapping up once per run, as a single table indexed by the
+ *  contact leaving its rightmost rotor, keyed by the other rotors'
+ *  offsets.  A cache serves a single rotor stack (though any number of
+ *  machines with that stack, which may be interleaved on one thread)
+ *  and is not thread-safe; give each thread its own.
+ *  @author Nitin Nazeer
+ */
+final class ScramblerCache {
+
+    /** A cache holding at most MAXENTRIES tables. */
+    ScramblerCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw error("cache must hold at least one table");
+        }
+        _maxEntries = maxEntries;
+        _tables = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[]> e) {
+                return size() > _maxEntries;
+            }
+        };
+    }
+
+    /** Return a cache whose tables over an alphabet of SIZE symbols
+     *  take at most about BYTES bytes. */
+    static ScramblerCache withBudget(long bytes, int size) {
+        long perTable = 4L * size + 64;
+        return new ScramblerCache((int) Math.max(1, Math.min(
+            Integer.MAX_VALUE, bytes / perTable)));
+    }
+
+    /** Record that my tables are for the rotor stack whose forward
+     *  tables are STACK, or check that they are if I already have one. */
+    void bind(int[][] stack) {
+        if (_stack == null) {
+            _stack = stack.clone();
+            return;
+        }
+        boolean same = _stack.length == stack.length;
+        for (int i = 0; same && i < stack.length - 1; i += 1) {
+            same = _stack[i] == stack[i];
+        }
+        if (!same) {
+            throw error("scrambler cache belongs to another rotor stack");
+        }
+    }
+
+    /** Return the composed table for the inner rotors of M in their
+     *  current settings, computing it if it is not cached.  If those
+     *  settings cannot be packed into a key, the table is computed into
+     *  SCRATCH, an array of alphabet size owned by M, and not kept. */
+    int[] table(CompiledMachine m, int[] scratch) {
+        long key = m.innerState();
+        if (key < 0) {
+            _misses += 1;
+            m.composeInner(scratch);
+            return scratch;
+        }
+        int[] table = _tables.get(key);
+        if (table != null) {
+            _hits += 1;
+            return table;
+        }
+        _misses += 1;
+        table = new int[m.alphabet().size()];
+        m.composeInner(table);
+        _tables.put(key, table);
+        return table;
+    }
+
+    /** Append to STORE as many of my tables as it has room for, most
+     *  recently used last, and return the number appended.  They are
+     *  preceded by a record identifying my rotor stack, so nothing is
+     *  saved if I have not been used or STORE is full. */
+    int saveTo(TableStore store) {
+        if (_stack == null || store.count() == store.capacity()) {
+            return 0;
+        }
+        if (store.size() != tableSize()) {
+            throw error("table store has wrong table size");
+        }
+        store.add(stackKey(), new int[store.size()]);
+        int saved = 0;
+        for (Map.Entry<Long, int[]> e : _tables.entrySet()) {
+            if (store.count() == store.capacity()) {
+                break;
+            }
+            store.add(e.getKey(), e.getValue());
+            saved += 1;
+        }
+        return saved;
+    }
+
+    /** Add the tables in STORE, which must have been saved from a cache
+     *  over the same rotor stack as mine, and return the number added.
+     *  I must already be in use by a machine, so that the stack can be
+     *  checked.  If STORE holds more than maxEntries() tables, only the
+     *  last ones are kept. */
+    int loadFrom(TableStore store) {
+        if (_stack == null) {
+            throw error("scrambler cache has no rotor stack yet");
+        }
+        if (store.size() != tableSize()) {
+            throw error("stored tables are for another alphabet size");
+        }
+        if (store.count() == 0 || store.key(0) != stackKey()) {
+            throw error("stored tables are for another rotor stack");
+        }
+        int added = 0;
+        for (int k = 1; k < store.count(); k += 1) {
+            long key = store.key(k);
+            if (key < 0) {
+                throw error("corrupt scrambler table store");
+            }
+            _tables.put(key, store.get(k, new int[store.size()]));
+            added += 1;
+        }
+        return Math.min(added, _maxEntries);
+    }
+
+    /** Return the number of entries in each of my tables. */
+    private int tableSize() {
+        return _stack[0].length / 2;
+    }
+
+    /** Return the key of the record identifying my rotor stack: a hash
+     *  of the wiring of all but its rightmost rotor, made negative so as
+     *  not to clash with the keys of tables. */
+    private long stackKey() {
+        long hash = _stack.length;
+        for (int i = 0; i < _stack.length - 1; i += 1) {
+            for (int v : _stack[i]) {
+                hash = hash * 0x9E3779B97F4A7C15L + v;
+            }
+        }
+        return hash | Long.MIN_VALUE;
+    }
+
+    /** Return the number of lookups that found a cached table. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that had to compose a table. */
+    long misses() {
+        return _misses;
+    }
+
+    /** Return the number of tables currently held. */
+    int size() {
+        return _tables.size();
+    }
+
+    /** Return the largest number of tables I hold. */
+    int maxEntries() {
+        return _maxEntries;
+    }
+
+    /** Discard all tables and reset my counters. */
+    void clear() {
+        _tables.clear();
+        _hits = _misses = 0;
+    }
+
+    /** Largest number of tables held. */
+    private final int _maxEntries;
+
+    /** Tables by key, least recently used first. */
+    private final LinkedHashMap<Long, int[]> _tables;
+
+    /** Forward tables of the rotor stack my tables belong to, or null
+     *  if I have not been used yet. */
+    private int[][] _stack;
+
+    /** Number of lookups satisfied from _tables. */
+    private long _hits;
+
+    /** Number of tables composed. */
+    private long _misses;
+}
@@ -0,0 +1,129 @@
+package enigma;
+
+import java.util.ArrayList;
+
+import static enigma.EnigmaException.*;
+
+/** A parsed setting line, of the form
+ *  "* REFLECTOR ROTOR... SETTING [RINGS] [(CYCLE)...]".  Parsing splits
+ *  the line on whitespace by hand rather than through a Scanner.
+ *  @author Nitin Nazeer
+ */
+final class Setting {
+
+    /** A setting with rotors named ROTORS, settings SETTING, ring settings
+     *  RINGS (or null) and plugboard cycles PLUGBOARD. */
+    private Setting(String[] rotors, String setting, String rings,
+                    String plugboard) {
+        _rotors = rotors;
+        _setting = setting;
+        _rings = rings;
+        _plugboard = plugboard;
+    }
+
+    /** Return the setting described by LINE for a machine with NUMROTORS
+     *  slots.  Any words after the plugboard cycles are ignored. */
+    static Setting parse(String line, int numRotors) {
+        ArrayList<String> words = split(line);
+        if (words.isEmpty()) {
+            throw error("bad rotor settings");
+        } else if (!words.get(0).equals("*")) {
+            throw error("Invalid input start, needs *");
+        } else if (words.size() < numRotors + 2) {
+            throw error("bad rotor settings");
+        }
+
+        String[] rotors = new String[numRotors];
+        for (int i = 0; i < numRotors; i += 1) {
+            rotors[i] = words.get(i + 1);
+        }
+        String setting = words.get(numRotors + 1);
+        if (setting.length() != numRotors - 1) {
+            throw error("bad settings length");
+        }
+
+        int k = numRotors + 2;
+        String rings = null;
+        if (k < words.size()
+            && isWord(words.get(k), 0, words.get(k).length())) {
+            rings = words.get(k);
+            k += 1;
+        }
+
+        StringBuilder plugboard = new StringBuilder();
+        for (; k < words.size(); k += 1) {
+            String w = words.get(k);
+            if (w.length() < 2 || w.charAt(0) != '('
+                || w.charAt(w.length() - 1) != ')'
+                || !isWord(w, 1, w.length() - 1)) {
+                break;
+            }
+            plugboard.append(w);
+        }
+        return new Setting(rotors, setting, rings, plugboard.toString());
+    }
+
+    /** Return the whitespace-separated words of LINE. */
+    private static ArrayList<String> split(String line) {
+        ArrayList<String> words = new ArrayList<>();
+        int n = line.length();
+        for (int i = 0; i < n; ) {
+            while (i < n && Character.isWhitespace(line.charAt(i))) {
+                i += 1;
+            }
+            int start = i;
+            while (i < n && !Character.isWhitespace(line.charAt(i))) {
+                i += 1;
+            }
+            if (start < i) {
+                words.add(line.substring(start, i));
+            }
+        }
+        return words;
+    }
+
+    /** Returns true iff characters START..END-1 of S are all word
+     *  characters (ASCII letters, digits and underscore). */
+    private static boolean isWord(String s, int start, int end) {
+        for (int i = start; i < end; i += 1) {
+            char c = s.charAt(i);
+            if (c >= 128 || !(Character.isLetterOrDigit(c) || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the names of my rotors, reflector first.  The result must
+     *  not be modified. */
+    String[] rotors() {
+        return _rotors;
+    }
+
+    /** Return my rotor settings. */
+    String setting() {
+        return _setting;
+    }
+
+    /** Return my ring settings, or null if none were given. */
+    String rings() {
+        return _rings;
+    }
+
+    /** Return my plugboard cycles, possibly empty. */
+    String plugboard() {
+        return _plugboard;
+    }
+
+    /** Names of the rotors. */
+    private final String[] _rotors;
+
+    /** Rotor settings. */
+    private final String _setting;
+
+    /** Ring settings, or null. */
+    private final String _rings;
+
+    /** Plugboard cycles. */
+    private final String _plugboard;
+}
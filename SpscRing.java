@@ -0,0 +1,81 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded queue for exactly one producer thread and one consumer
+ *  thread, implemented as a ring of slots without locks.  The producer
+ *  publishes a slot by advancing the tail with a release store, and the
+ *  consumer frees one by advancing the head the same way; each side
+ *  caches the other's counter and rereads it only when the ring looks
+ *  full or empty.
+ *  @author Nitin Nazeer
+ */
+final class SpscRing<T> {
+
+    /** A ring holding up to CAPACITY items, a power of two. */
+    SpscRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw error("ring capacity must be a power of two");
+        }
+        _items = new Object[capacity];
+        _mask = capacity - 1;
+    }
+
+    /** Return my capacity. */
+    int capacity() {
+        return _items.length;
+    }
+
+    /** Append ITEM, which must not be null, and return true, or return
+     *  false if I am full.  Only the producer may call this. */
+    boolean offer(T item) {
+        long tail = _tail.getPlain();
+        if (tail - _headCache == _items.length) {
+            _headCache = _head.getAcquire();
+            if (tail - _headCache == _items.length) {
+                return false;
+            }
+        }
+        _items[(int) tail & _mask] = item;
+        _tail.setRelease(tail + 1);
+        return true;
+    }
+
+    /** Remove and return my first item, or return null if I am empty.
+     *  Only the consumer may call this. */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long head = _head.getPlain();
+        if (head == _tailCache) {
+            _tailCache = _tail.getAcquire();
+            if (head == _tailCache) {
+                return null;
+            }
+        }
+        int k = (int) head & _mask;
+        T item = (T) _items[k];
+        _items[k] = null;
+        _head.setRelease(head + 1);
+        return item;
+    }
+
+    /** The slots. */
+    private final Object[] _items;
+
+    /** Mask taking a counter to a slot index. */
+    private final int _mask;
+
+    /** Number of items ever removed. */
+    private final AtomicLong _head = new AtomicLong();
+
+    /** Number of items ever added. */
+    private final AtomicLong _tail = new AtomicLong();
+
+    /** The producer's last reading of _head. */
+    private long _headCache;
+
+    /** The consumer's last reading of _tail. */
+    private long _tailCache;
+}
@@ -0,0 +1,509 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** Converts a file of messages in Main's input format into a file in
+ *  Main's output format, and can be stopped and resumed part-way.  Every
+ *  few lines the session records a Checkpoint: the byte offsets reached
+ *  in the input and output, the offset of the setting line in force, and
+ *  the rotor settings.  Checkpoints are handed to a CheckpointWriter,
+ *  which writes them in the background.  A session started with a
+ *  checkpoint truncates the output to the recorded length, re-reads only
+ *  the recorded setting line, and carries on from the recorded input
+ *  offset, so nothing before it is read again.  As in Main, a rotor
+ *  keeps the ring setting last given to it by a setting line until
+ *  another line gives it a new one, so checkpoints also record the ring
+ *  setting of every rotor.  Lines are split at '\n' bytes, so the
+ *  charset must encode '\n' as that byte alone (as ASCII, UTF-8 and the
+ *  ISO-8859 charsets do).
+ *  @author Nitin Nazeer
+ */
+final class StreamSession {
+
+    /** Size of the input and output buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Line terminator used in the output. */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** A session converting with machines described by SPEC, reading and
+     *  writing text in CHARSET. */
+    StreamSession(MachineSpec spec, Charset charset) {
+        _spec = spec;
+        _alphabet = spec.alphabet();
+        _decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _encoder = charset.newEncoder()
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        List<String> names = spec.rotorNames();
+        for (int i = 0; i < names.size(); i += 1) {
+            _rotorIndex.put(names.get(i), i);
+        }
+        _rings = new int[names.size()];
+    }
+
+    /** The point a session had reached: input and output byte offsets,
+     *  the offset of the setting line in force (-1 if none), the rotor
+     *  settings, and the ring setting of each rotor of the machine
+     *  specification, in the order of its rotorNames(). */
+    static final class Checkpoint {
+
+        /** Format identifier, first byte of an encoded checkpoint. */
+        private static final int VERSION = 2;
+
+        /** A checkpoint at INPUT bytes of input and OUTPUT bytes of
+         *  output, under the setting line at offset SETTING, with rotor
+         *  settings POSITIONS and ring settings RINGS. */
+        Checkpoint(long input, long output, long setting, int[] positions,
+                   int[] rings) {
+            _input = input;
+            _output = output;
+            _setting = setting;
+            _positions = positions.clone();
+            _rings = rings.clone();
+        }
+
+        /** Return the input offset reached. */
+        long input() {
+            return _input;
+        }
+
+        /** Return the output offset reached. */
+        long output() {
+            return _output;
+        }
+
+        /** Return the offset of the setting line in force, or -1. */
+        long setting() {
+            return _setting;
+        }
+
+        /** Return the rotor settings, one per slot. */
+        int[] positions() {
+            return _positions.clone();
+        }
+
+        /** Return the ring settings, one per rotor. */
+        int[] rings() {
+            return _rings.clone();
+        }
+
+        /** Return my compact encoding: a version byte, then the offsets
+         *  and settings as variable-length integers. */
+        byte[] encode() {
+            ByteBuffer out = ByteBuffer.allocate(
+                1 + 10 * 5 + 5 * (_positions.length + _rings.length));
+            out.put((byte) VERSION);
+            putVarLong(out, _input);
+            putVarLong(out, _output);
+            putVarLong(out, _setting + 1);
+            putVarLong(out, _positions.length);
+            for (int p : _positions) {
+                putVarLong(out, p);
+            }
+            putVarLong(out, _rings.length);
+            for (int r : _rings) {
+                putVarLong(out, r);
+            }
+            return Arrays.copyOf(out.array(), out.position());
+        }
+
+        /** Return the checkpoint encoded in DATA by encode(). */
+        static Checkpoint decode(byte[] data) {
+            try {
+                ByteBuffer in = ByteBuffer.wrap(data);
+                if (in.get() != VERSION) {
+                    throw error("unsupported checkpoint version");
+                }
+                long input = getVarLong(in), output = getVarLong(in);
+                long setting = getVarLong(in) - 1;
+                int[] positions = new int[(int) getVarLong(in)];
+                for (int i = 0; i < positions.length; i += 1) {
+                    positions[i] = (int) getVarLong(in);
+                }
+                int[] rings = new int[(int) getVarLong(in)];
+                for (int i = 0; i < rings.length; i += 1) {
+                    rings[i] = (int) getVarLong(in);
+                }
+                return new Checkpoint(input, output, setting, positions,
+                                      rings);
+            } catch (RuntimeException excp) {
+                if (excp instanceof EnigmaException) {
+                    throw excp;
+                }
+                throw error("corrupt checkpoint");
+            }
+        }
+
+        /** Append V, which must be non-negative, to OUT in 7-bit
+         *  groups, least significant first. */
+        private static void putVarLong(ByteBuffer out, long v) {
+            while (v >= 0x80) {
+                out.put((byte) (v | 0x80));
+                v >>>= 7;
+            }
+            out.put((byte) v);
+        }
+
+        /** Return a number written to IN by putVarLong. */
+        private static long getVarLong(ByteBuffer in) {
+            long result = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.get();
+                result |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+        }
+
+        /** Input offset. */
+        private final long _input;
+
+        /** Output offset. */
+        private final long _output;
+
+        /** Setting line offset, or -1. */
+        private final long _setting;
+
+        /** Rotor settings. */
+        private final int[] _positions;
+
+        /** Ring settings, by rotor. */
+        private final int[] _rings;
+    }
+
+    /** Convert INPUT into OUTPUT, submitting a checkpoint to CHECKPOINTS
+     *  after every EVERY lines.  If START is not null, resume from it;
+     *  otherwise start from the beginning, replacing OUTPUT.  Stop after
+     *  LIMIT lines (as if interrupted), or at the end of INPUT.  Return
+     *  the number of lines processed. */
+    long run(Path input, Path output, Checkpoint start,
+             CheckpointWriter checkpoints, int every, long limit) {
+        if (every < 1) {
+            throw error("checkpoint interval must be positive");
+        }
+        try (FileChannel in = FileChannel.open(input);
+             FileChannel out = FileChannel.open(output,
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            _in = in;
+            _out = out;
+            _inBuffer.clear().flip();
+            _outBuffer.clear();
+            _session = null;
+            _settingOffset = -1;
+            Arrays.fill(_rings, 0);
+            if (start == null) {
+                out.truncate(0);
+                _inOffset = _outOffset = 0;
+            } else {
+                resume(start);
+            }
+            long lines = 0;
+            try {
+                while (lines < limit && nextLine()) {
+                    process();
+                    lines += 1;
+                    if (lines % every == 0) {
+                        flush();
+                        checkpoints.submit(checkpoint().encode());
+                    }
+                }
+            } finally {
+                flush();
+            }
+            return lines;
+        } catch (IOException excp) {
+            throw error("stream failed: %s", excp.getMessage());
+        }
+    }
+
+    /** Convert INPUT into OUTPUT, resuming from the checkpoint kept by
+     *  CHECKPOINTS if there is one, and checkpointing every EVERY lines.
+     *  When the whole input has been converted, the checkpoint file is
+     *  deleted. */
+    void run(Path input, Path output, CheckpointWriter checkpoints,
+             int every) {
+        byte[] saved = CheckpointWriter.read(checkpoints.file());
+        run(input, output, saved == null ? null : Checkpoint.decode(saved),
+            checkpoints, every, Long.MAX_VALUE);
+        checkpoints.delete();
+    }
+
+    /** Return a checkpoint of my current state. */
+    Checkpoint checkpoint() {
+        int[] positions = new int[_session == null ? 0
+                                  : _session.numSlots()];
+        for (int i = 0; i < positions.length; i += 1) {
+            positions[i] = _session.setting(i);
+        }
+        return new Checkpoint(_inOffset, _outOffset, _settingOffset,
+                              positions, _rings);
+    }
+
+    /** Restore the state recorded in START. */
+    private void resume(Checkpoint start) throws IOException {
+        if (_out.size() < start.output()) {
+            throw error("output is shorter than the checkpoint");
+        }
+        int[] rings = start.rings();
+        if (rings.length != _rings.length) {
+            throw error("checkpoint does not match the configuration");
+        }
+        System.arraycopy(rings, 0, _rings, 0, rings.length);
+        _out.truncate(start.output());
+        _outOffset = start.output();
+        if (start.setting() >= 0) {
+            _inOffset = start.setting();
+            if (!nextLine()) {
+                throw error("setting line missing from input");
+            }
+            Setting setting = setting();
+            int[] positions = start.positions();
+            char[] chars = new char[positions.length - 1];
+            for (int i = 1; i < positions.length; i += 1) {
+                chars[i - 1] = _alphabet.toChar(positions[i]);
+            }
+            _session = session(setting, new String(chars));
+            _settingOffset = start.setting();
+        }
+        _inOffset = start.input();
+        _inBuffer.clear().flip();
+    }
+
+    /** Handle the line in _line. */
+    private void process() throws IOException {
+        CharBuffer line = _line;
+        int first = 0;
+        while (first < line.limit()
+               && Character.isWhitespace(line.get(first))) {
+            first += 1;
+        }
+        if (first == line.limit()) {
+            newLine();
+        } else if (LineReader.isSettingLine(line.array(), first,
+                                            line.limit())) {
+            _settingOffset = _lineOffset;
+            Setting setting = setting();
+            _session = session(setting, setting.setting());
+        } else if (_session == null) {
+            throw error("message before first setting line");
+        } else {
+            int space = CompiledMachine.messageSpace(line.limit(), 5);
+            if (_converted.length < space) {
+                _converted = new char[space];
+            }
+            int n = _session.convertMessage(line.array(), first,
+                                            line.limit() - first,
+                                            _converted, 0, 5);
+            for (int i = 0; i < n; i += 1) {
+                write(_converted[i]);
+            }
+            newLine();
+        }
+    }
+
+    /** Return the setting line in _line, parsed. */
+    private Setting setting() {
+        return Setting.parse(_line.toString(), _spec.numRotors());
+    }
+
+    /** Return a session for SETTING with rotor settings POSITIONS.  If
+     *  SETTING gives no ring settings, each rotor keeps the one it was
+     *  last given, as in Main; otherwise SETTING's are recorded. */
+    private CompiledMachine session(Setting setting, String positions) {
+        String[] rotors = setting.rotors();
+        String rings = setting.rings();
+        if (rings == null) {
+            char[] kept = new char[rotors.length - 1];
+            for (int i = 1; i < rotors.length; i += 1) {
+                Integer k = _rotorIndex.get(rotors[i]);
+                kept[i - 1] = _alphabet.toChar(k == null ? 0 : _rings[k]);
+            }
+            rings = new String(kept);
+        }
+        CompiledMachine result =
+            _spec.session(rotors, positions, rings, plugboard(setting));
+        for (int i = 1; i < rotors.length; i += 1) {
+            _rings[_rotorIndex.get(rotors[i])] =
+                _alphabet.toInt(rings.charAt(i - 1));
+        }
+        return result;
+    }
+
+    /** Return the plugboard of SETTING. */
+    private Permutation plugboard(Setting setting) {
+        return new Permutation(setting.plugboard(), _alphabet);
+    }
+
+    /** Read the line starting at _inOffset into _line, without its
+     *  terminator, set _lineOffset to its start and advance _inOffset
+     *  past it.  Return false if the input is exhausted. */
+    private boolean nextLine() throws IOException {
+        _lineOffset = _inOffset;
+        int length = 0;
+        boolean any = false;
+        while (true) {
+            if (!_inBuffer.hasRemaining()) {
+                _inBuffer.clear();
+                int n = _in.read(_inBuffer, _inOffset + length);
+                _inBuffer.flip();
+                if (n <= 0) {
+                    if (!any) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+            any = true;
+            byte b = _inBuffer.get();
+            if (b == '\n') {
+                _inOffset += length + 1;
+                decode(length);
+                return true;
+            }
+            if (length == _bytes.length) {
+                _bytes = Arrays.copyOf(_bytes, 2 * length);
+            }
+            _bytes[length] = b;
+            length += 1;
+        }
+        _inOffset += length;
+        decode(length);
+        return true;
+    }
+
+    /** Decode the first LENGTH bytes of _bytes into _line, dropping a
+     *  trailing carriage return. */
+    private void decode(int length) {
+        if (length > 0 && _bytes[length - 1] == '\r') {
+            length -= 1;
+        }
+        if (_line.capacity() < length) {
+            _line = CharBuffer.allocate(length);
+        }
+        _line.clear();
+        _decoder.reset();
+        _decoder.decode(ByteBuffer.wrap(_bytes, 0, length), _line, true);
+        _decoder.flush(_line);
+        _line.flip();
+    }
+
+    /** Append C to the output. */
+    private void write(char c) throws IOException {
+        if (!_outChars.hasRemaining()) {
+            encode();
+        }
+        _outChars.put(c);
+    }
+
+    /** Append a line terminator to the output. */
+    private void newLine() throws IOException {
+        for (int i = 0; i < LINE_SEPARATOR.length(); i += 1) {
+            write(LINE_SEPARATOR.charAt(i));
+        }
+    }
+
+    /** Encode the characters in _outChars into _outBuffer, writing it
+     *  out when full. */
+    private void encode() throws IOException {
+        _outChars.flip();
+        while (true) {
+            boolean overflow =
+                _encoder.encode(_outChars, _outBuffer, false).isOverflow();
+            if (!overflow) {
+                break;
+            }
+            drainOutput();
+        }
+        _outChars.compact();
+    }
+
+    /** Write all of my output so far to the output file. */
+    private void flush() throws IOException {
+        encode();
+        drainOutput();
+    }
+
+    /** Write _outBuffer to the output file at _outOffset. */
+    private void drainOutput() throws IOException {
+        _outBuffer.flip();
+        while (_outBuffer.hasRemaining()) {
+            _outOffset += _out.write(_outBuffer, _outOffset);
+        }
+        _outBuffer.clear();
+    }
+
+    /** Description of my machines. */
+    private final MachineSpec _spec;
+
+    /** Alphabet of my machines. */
+    private final Alphabet _alphabet;
+
+    /** Input decoder. */
+    private final CharsetDecoder _decoder;
+
+    /** Output encoder. */
+    private final CharsetEncoder _encoder;
+
+    /** Input file of the current run. */
+    private FileChannel _in;
+
+    /** Output file of the current run. */
+    private FileChannel _out;
+
+    /** Input read ahead of _inOffset + the current line. */
+    private final ByteBuffer _inBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Encoded output not yet written. */
+    private final ByteBuffer _outBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Output characters not yet encoded. */
+    private final CharBuffer _outChars = CharBuffer.allocate(BUFFER_SIZE);
+
+    /** Bytes of the current line. */
+    private byte[] _bytes = new byte[256];
+
+    /** The current line, decoded. */
+    private CharBuffer _line = CharBuffer.allocate(256);
+
+    /** Scratch space for a converted line. */
+    private char[] _converted = new char[256];
+
+    /** Input offset of the start of the current line. */
+    private long _lineOffset;
+
+    /** Input offset of the first byte not yet handled. */
+    private long _inOffset;
+
+    /** Number of output bytes written to the file so far. */
+    private long _outOffset;
+
+    /** Input offset of the setting line in force, or -1. */
+    private long _settingOffset;
+
+    /** Machine for the current message, or null before the first setting
+     *  line. */
+    private CompiledMachine _session;
+
+    /** Position of each rotor in _spec.rotorNames(). */
+    private final HashMap<String, Integer> _rotorIndex = new HashMap<>();
+
+    /** Ring setting each rotor was last given, by _rotorIndex. */
+    private final int[] _rings;
+}
@@ -0,0 +1,174 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the StreamSession class.
+ *  @author Nitin Nazeer
+ */
+public class StreamSessionTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String NL = System.lineSeparator();
+
+    private static final String INPUT =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+        + "FROM HIS SHOULDER HIAWATHA\n"
+        + "\n"
+        + "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+        + "  FROMHIS SHOUL DERHIAWATHA\r\n";
+
+    /** Return a session over the naval rotors. */
+    private StreamSession session() {
+        return new StreamSession(new MachineSpec(UPPER, 5, 3, navalRotors()),
+                                 StandardCharsets.US_ASCII);
+    }
+
+    /** Return a temporary file holding TEXT. */
+    private Path file(String text) throws IOException {
+        Path result = Files.createTempFile("stream", ".txt");
+        Files.write(result, text.getBytes(StandardCharsets.US_ASCII));
+        return result;
+    }
+
+    /** Return the contents of FILE. */
+    private String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file),
+                          StandardCharsets.US_ASCII);
+    }
+
+    /** Return a long input: several settings, each followed by many
+     *  lines of text. */
+    private String longInput() {
+        StringBuilder result = new StringBuilder();
+        String[] settings = {"AXLE", "AAEU", "QWER"};
+        for (String s : settings) {
+            result.append("* B Beta III IV I ").append(s)
+                .append(" (HQ) (EX)\n");
+            for (int i = 0; i < 20; i += 1) {
+                result.append(i % 7 == 6 ? "" : HIAWATHA.substring(i))
+                    .append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkConvert() throws IOException {
+        Path in = file(INPUT), out = file("junk"), ckpt = file("");
+        Files.delete(ckpt);
+        try (CheckpointWriter writer = new CheckpointWriter(ckpt)) {
+            session().run(in, out, writer, 2);
+            assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW" + NL + NL
+                         + "QVPQS OKOIL PUBKJ ZPISF XDW" + NL, read(out));
+            assertFalse(Files.exists(ckpt));
+        } finally {
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(out);
+        }
+    }
+
+    @Test
+    public void checkRingsCarriedOver() throws IOException {
+        String text = "* C Beta VIII III II BGYJ HMMP (CF) (OM)\n"
+            + "AAAA\n"
+            + "* B Gamma III II VII RBKV (RP) (DZ)\n"
+            + "QORAYCOKTQ\n";
+        Path in = file(text), out = file(""), part = file(""),
+            ckpt = file("");
+        Files.delete(ckpt);
+        try (CheckpointWriter writer = new CheckpointWriter(ckpt)) {
+            session().run(in, out, writer, 1000);
+            assertTrue(read(out).endsWith(NL + "DTKCH GJSVK" + NL));
+            session().run(in, part, null, writer, 3, 3);
+            writer.drain();
+            session().run(in, part, writer, 1000);
+            assertEquals(read(out), read(part));
+        } finally {
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(out);
+            Files.deleteIfExists(part);
+        }
+    }
+
+    @Test
+    public void checkResume() throws IOException {
+        String text = longInput();
+        Path in = file(text), whole = file(""), part = file(""),
+            ckpt = file("");
+        Files.delete(ckpt);
+        try (CheckpointWriter writer = new CheckpointWriter(ckpt)) {
+            session().run(in, whole, null, writer, 1000, Long.MAX_VALUE);
+            for (int stop = 1; stop < 63; stop += 5) {
+                session().run(in, part, null, writer, 3, stop);
+                writer.drain();
+                Files.write(part, "garbage".getBytes(),
+                            StandardOpenOption.APPEND);
+                session().run(in, part, writer, 3);
+                assertEquals(msg("resume", "stopped after %d", stop),
+                             read(whole), read(part));
+                assertFalse(Files.exists(ckpt));
+            }
+        } finally {
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(whole);
+            Files.deleteIfExists(part);
+        }
+    }
+
+    @Test
+    public void checkCheckpointEncoding() {
+        StreamSession.Checkpoint c =
+            new StreamSession.Checkpoint(1L << 40, 300, -1,
+                                         new int[] {0, 0, 25, 3, 17},
+                                         new int[] {4, 0, 1});
+        byte[] data = c.encode();
+        assertTrue(data.length < 24);
+        StreamSession.Checkpoint d = StreamSession.Checkpoint.decode(data);
+        assertEquals(1L << 40, d.input());
+        assertEquals(300, d.output());
+        assertEquals(-1, d.setting());
+        assertArrayEquals(new int[] {0, 0, 25, 3, 17}, d.positions());
+        assertArrayEquals(new int[] {4, 0, 1}, d.rings());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkCorruptCheckpoint() {
+        StreamSession.Checkpoint.decode(new byte[] {1, (byte) 0x80});
+    }
+
+    @Test
+    public void checkStarWordOnly() throws IOException {
+        Path in = file("* B Beta III IV I AXLE (HQ)\n*HELLO\n"),
+            out = file(""), ckpt = file("");
+        Files.delete(ckpt);
+        try (CheckpointWriter writer = new CheckpointWriter(ckpt)) {
+            session().run(in, out, writer, 1000);
+            fail("message line starting with '*' accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("character '*' not in alphabet", excp.getMessage());
+        } finally {
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(out);
+            Files.deleteIfExists(ckpt);
+        }
+    }
+
+}
@@ -0,0 +1,217 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** A fixed number of keyed index tables, all over one alphabet size,
+ *  held outside the Java heap.  A store may be a plain direct buffer or
+ *  a memory-mapped file; in the latter case a later process can open
+ *  the file and use the tables at once, without re-parsing any cycles
+ *  or composing any scramblers.  Permutation tables and ScramblerCache
+ *  tables are both kept this way: each table is a row of alphabet-size
+ *  ints, tagged with a long key chosen by the caller.  A store is not
+ *  thread-safe.
+ *  @author Nitin Nazeer
+ */
+final class TableStore {
+
+    /** Identifies a table store file. */
+    private static final int MAGIC = 0x456e5462;
+
+    /** Bytes in the header: magic, table size, capacity, count. */
+    private static final int HEADER = 16;
+
+    /** A store over BUFFER, which holds a header already. */
+    private TableStore(ByteBuffer buffer) {
+        _buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (_buffer.getInt(0) != MAGIC) {
+            throw error("not a table store");
+        }
+        _size = _buffer.getInt(4);
+        _capacity = _buffer.getInt(8);
+        _record = 8 + 4L * _size;
+        if (_size <= 0 || _capacity < 0
+            || HEADER + _capacity * _record > _buffer.capacity()
+            || count() < 0 || count() > _capacity) {
+            throw error("corrupt table store");
+        }
+    }
+
+    /** Return the number of bytes needed to store CAPACITY tables of
+     *  SIZE entries. */
+    static long bytes(int size, int capacity) {
+        if (size <= 0 || capacity < 0) {
+            throw error("bad table store dimensions");
+        }
+        return HEADER + capacity * (8 + 4L * size);
+    }
+
+    /** Return an empty store in a direct buffer, for CAPACITY tables of
+     *  SIZE entries. */
+    static TableStore allocate(int size, int capacity) {
+        long bytes = bytes(size, capacity);
+        if (bytes > Integer.MAX_VALUE) {
+            throw error("table store too large for one buffer");
+        }
+        return new TableStore(header(ByteBuffer.allocateDirect((int) bytes),
+                                     size, capacity));
+    }
+
+    /** Return an empty store for CAPACITY tables of SIZE entries, mapped
+     *  from FILE, which is created or overwritten. */
+    static TableStore create(Path file, int size, int capacity) {
+        long bytes = bytes(size, capacity);
+        if (bytes > Integer.MAX_VALUE) {
+            throw error("table store too large for one mapping");
+        }
+        return new TableStore(header(map(file, bytes, true), size,
+                                     capacity));
+    }
+
+    /** Return the store previously created in FILE, mapped so that it
+     *  may be read and added to. */
+    static TableStore open(Path file) {
+        return new TableStore(map(file, -1, false));
+    }
+
+    /** Return FILE mapped read-write.  If CREATE, the file is created
+     *  or truncated and then made BYTES long; otherwise its existing
+     *  length is mapped. */
+    private static MappedByteBuffer map(Path file, long bytes,
+                                        boolean create) {
+        StandardOpenOption[] options = create
+            ? new StandardOpenOption[] {
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING }
+            : new StandardOpenOption[] {
+                StandardOpenOption.READ, StandardOpenOption.WRITE };
+        try (FileChannel channel = FileChannel.open(file, options)) {
+            if (!create) {
+                bytes = channel.size();
+                if (bytes < HEADER || bytes > Integer.MAX_VALUE) {
+                    throw error("%s is not a table store", file);
+                }
+            }
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        } catch (IOException excp) {
+            throw error("could not map %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Write a header for CAPACITY tables of SIZE entries and no tables
+     *  into BUFFER, returning BUFFER. */
+    private static ByteBuffer header(ByteBuffer buffer, int size,
+                                     int capacity) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, size);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, 0);
+        return buffer;
+    }
+
+    /** Return the number of entries in each of my tables. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the largest number of tables I can hold. */
+    int capacity() {
+        return _capacity;
+    }
+
+    /** Return the number of tables I hold. */
+    int count() {
+        return _buffer.getInt(12);
+    }
+
+    /** Return the byte position of entry I of table K. */
+    private int position(int k, int i) {
+        if (k < 0 || k >= count()) {
+            throw error("no table %d in store", k);
+        }
+        return (int) (HEADER + k * _record + 8 + 4L * i);
+    }
+
+    /** Return the key of table K. */
+    long key(int k) {
+        return _buffer.getLong(position(k, 0) - 8);
+    }
+
+    /** Return the number of the first table with key KEY, or -1 if there
+     *  is none. */
+    int find(long key) {
+        for (int k = 0; k < count(); k += 1) {
+            if (key(k) == key) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /** Append TABLE, which must have size() entries, with key KEY, and
+     *  return its number. */
+    int add(long key, int[] table) {
+        int k = count();
+        if (k == _capacity) {
+            throw error("table store is full");
+        } else if (table.length != _size) {
+            throw error("table has wrong size for store");
+        }
+        int p = (int) (HEADER + k * _record);
+        _buffer.putLong(p, key);
+        p += 8;
+        for (int i = 0; i < _size; i += 1, p += 4) {
+            _buffer.putInt(p, table[i]);
+        }
+        _buffer.putInt(12, k + 1);
+        return k;
+    }
+
+    /** Return entry I of table K. */
+    int get(int k, int i) {
+        return _buffer.getInt(position(k, i));
+    }
+
+    /** Copy table K into DST, which must have size() entries, and
+     *  return DST. */
+    int[] get(int k, int[] dst) {
+        int p = position(k, 0);
+        _buffer.slice(p, 4 * _size).order(ByteOrder.LITTLE_ENDIAN)
+            .asIntBuffer().get(dst, 0, _size);
+        return dst;
+    }
+
+    /** Return the permutation of ALPHABET whose table is table K. */
+    Permutation permutation(int k, Alphabet alphabet) {
+        return new Permutation(get(k, new int[_size]), alphabet);
+    }
+
+    /** Write any changes to my tables through to my file, if I am
+     *  mapped from one. */
+    void force() {
+        if (_buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) _buffer).force();
+        }
+    }
+
+    /** Header followed by my records. */
+    private final ByteBuffer _buffer;
+
+    /** Entries per table. */
+    private final int _size;
+
+    /** Number of records _buffer has room for. */
+    private final int _capacity;
+
+    /** Bytes per record: key and table. */
+    private final long _record;
+}
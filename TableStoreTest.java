@@ -0,0 +1,108 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the TableStore class.
+ *  @author Nitin Nazeer
+ */
+public class TableStoreTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String[] STACK =
+        {"B", "Beta", "III", "IV", "I"};
+
+    /** Return a fresh temporary file name. */
+    private Path tempFile() throws IOException {
+        return Files.createTempFile("tables", ".tbl");
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkPermutationsSurviveReopen() throws IOException {
+        Path file = tempFile();
+        try {
+            TableStore store = TableStore.create(file, 26, 2);
+            Permutation perm = new Permutation(NAVALA.get("IV"), UPPER);
+            store.add(7, perm.forwardTable());
+            store.add(9, new Permutation(NAVALA.get("B"), UPPER)
+                      .forwardTable());
+            store.force();
+
+            TableStore reopened = TableStore.open(file);
+            assertEquals(2, reopened.count());
+            assertEquals(0, reopened.find(7));
+            assertEquals(-1, reopened.find(8));
+            Permutation loaded = reopened.permutation(0, UPPER);
+            for (int c = 0; c < 26; c += 1) {
+                assertEquals(perm.permute(c), loaded.permute(c));
+                assertEquals(perm.invert(c), loaded.invert(c));
+            }
+            assertEquals('E', loaded.permute('A'));
+            assertEquals(22, loaded.getCycle('A').size());
+            assertTrue(reopened.permutation(1, UPPER).derangement());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void checkScramblerCacheRoundTrip() {
+        MachineSpec spec = new MachineSpec(UPPER, 5, 3, navalRotors());
+        CompiledMachine first = spec.session(STACK, "AQEV", "BCDE", null);
+        ScramblerCache cache = new ScramblerCache(100);
+        first.useCache(cache);
+        String expected = first.convert(HIAWATHA);
+
+        TableStore store = TableStore.allocate(26, 100);
+        assertEquals(cache.size(), cache.saveTo(store));
+        ScramblerCache loaded = new ScramblerCache(100);
+        CompiledMachine second = spec.session(STACK, "AQEV", "BCDE", null);
+        second.useCache(loaded);
+        assertEquals(store.count() - 1, loaded.loadFrom(store));
+        assertEquals(expected, second.convert(HIAWATHA));
+        assertEquals(0, loaded.misses());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkScramblerCacheOtherStack() {
+        MachineSpec spec = new MachineSpec(UPPER, 5, 3, navalRotors());
+        ScramblerCache cache = new ScramblerCache(100);
+        CompiledMachine first = spec.session(STACK, "AQEV", null, null);
+        first.useCache(cache);
+        first.convert(HIAWATHA);
+        TableStore store = TableStore.allocate(26, 100);
+        cache.saveTo(store);
+        String[] other = {"B", "Beta", "I", "II", "III"};
+        ScramblerCache loaded = new ScramblerCache(100);
+        spec.session(other, "AQEV", null, null).useCache(loaded);
+        loaded.loadFrom(store);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkFull() {
+        TableStore store = TableStore.allocate(3, 1);
+        store.add(0, new int[] {1, 2, 0});
+        store.add(1, new int[] {2, 0, 1});
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkNotAPermutation() {
+        new Permutation(new int[] {1, 1, 0}, new Alphabet("ABC"));
+    }
+
+}
@@ -1,6 +1,8 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Random;
 
 /** Utility definitions for use in unit tests.
  *  @author P. N. Hilfinger
@@ -32,6 +34,88 @@ class TestUtils {
         return testId + " (" + String.format(msgFormat, args) + ")";
     }
 
+    /** Return a fresh set of all the rotors described by NAVALA and
+     *  ROTORTYPE, over UPPER. */
+    static ArrayList<Rotor> navalRotors() {
+        ArrayList<Rotor> result = new ArrayList<>();
+        for (String name : NAVALA.keySet()) {
+            Permutation perm = new Permutation(NAVALA.get(name), UPPER);
+            String type = ROTORTYPE.get(name);
+            if (type.charAt(0) == 'M') {
+                result.add(new MovingRotor(name, perm, type.substring(1)));
+            } else if (type.equals("N")) {
+                result.add(new FixedRotor(name, perm));
+            } else {
+                result.add(new Reflector(name, perm));
+            }
+        }
+        return result;
+    }
+
+    /** Return a machine built from navalRotors() with ROTORS inserted,
+     *  settings SETTING, ring settings RINGS (ignored if null), and
+     *  plugboard cycles PLUGS. */
+    static Machine navalMachine(String[] rotors, String setting,
+                                String rings, String plugs) {
+        Machine machine = new Machine(UPPER, rotors.length, 3,
+                                      navalRotors());
+        machine.insertRotors(rotors);
+        machine.setRotors(setting);
+        if (rings != null) {
+            machine.setRings(rings);
+        }
+        machine.setPlugboard(new Permutation(plugs, UPPER));
+        return machine;
+    }
+
+    /** Return a machine over ALPHA, which must have an even size, with a
+     *  reflector, a fixed rotor and two moving rotors whose wirings are
+     *  drawn from RANDOM, all in setting 0 with an empty plugboard. */
+    static Machine tableMachine(Alphabet alpha, Random random) {
+        return tableMachine(alpha, random, 2);
+    }
+
+    /** Return a machine as for tableMachine(ALPHA, RANDOM), but with
+     *  MOVERS moving rotors. */
+    static Machine tableMachine(Alphabet alpha, Random random, int movers) {
+        int n = alpha.size();
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        int[] order = shuffled(n, random), pairs = new int[n];
+        for (int i = 0; i < n; i += 2) {
+            pairs[order[i]] = order[i + 1];
+            pairs[order[i + 1]] = order[i];
+        }
+        rotors.add(new Reflector("R", new Permutation(pairs, alpha)));
+        rotors.add(new FixedRotor("F", new Permutation(shuffled(n, random),
+                                                       alpha)));
+        String notches = new String(new int[] {alpha.toCodePoint(0),
+                                               alpha.toCodePoint(n / 2)},
+                                    0, 2);
+        String[] names = new String[movers + 2];
+        names[0] = "R";
+        names[1] = "F";
+        for (int i = 1; i <= movers; i += 1) {
+            names[i + 1] = "M" + i;
+            rotors.add(new MovingRotor(names[i + 1], new Permutation(
+                shuffled(n, random), alpha), notches));
+        }
+        Machine machine = new Machine(alpha, movers + 2, movers, rotors);
+        machine.insertRotors(names);
+        machine.setPlugboard(new Permutation("", alpha));
+        return machine;
+    }
+
+    /** Return a random permutation of 0 .. N - 1 drawn from RANDOM. */
+    static int[] shuffled(int n, Random random) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            int j = random.nextInt(i + 1);
+            result[i] = result[j];
+            result[j] = i;
+        }
+        return result;
+    }
+
     static final HashMap<String, String> ROTORTYPE = new HashMap<>();
     static {
         ROTORTYPE.put("I", "MQ");
@@ -67,6 +67,43 @@ public class UnitTest {
         assertTrue(full.toInt(c2) == 25);
     }
 
+    @Test
+    public void testAlphabetLookupModes() {
+        Alphabet range = new Alphabet();
+        Alphabet dense = new Alphabet("ZYXabc_.");
+        Alphabet sparse = new Alphabet("A\u4e00\uffef.");
+        assertTrue(range.isRange());
+        assertFalse(dense.isRange());
+        assertEquals(7, dense.toInt('.'));
+        assertEquals(-1, dense.toInt('d'));
+        assertEquals(1, sparse.toInt('\u4e00'));
+        assertEquals(2, sparse.toInt('\uffef'));
+        assertEquals(-1, sparse.toInt('B'));
+        assertFalse(sparse.contains('\u4e01'));
+    }
+
+    @Test
+    public void testAlphabetDuplicate() {
+        assertFalse(Alphabet.hasDuplicate(UPPER_STRING));
+        assertTrue(Alphabet.hasDuplicate("ABCA"));
+        assertTrue(Alphabet.hasDuplicate("A\u4e00B\u4e00"));
+        assertFalse(Alphabet.hasDuplicate(""));
+    }
+
+    @Test
+    public void testAlphabetCodePoints() {
+        Alphabet faces = Alphabet.ofCodePoints("A\ud83d\ude00\ud83d\ude01");
+        assertEquals(3, faces.size());
+        assertEquals(0x1f601, faces.toCodePoint(2));
+        assertEquals(1, faces.indexOf(0x1f600));
+        assertEquals(-1, faces.indexOf(0x1f602));
+        assertEquals(-1, faces.toInt('\ud83d'));
+        Alphabet bytes = Alphabet.bytes();
+        assertEquals(256, bytes.size());
+        assertTrue(bytes.isRange());
+        assertEquals(0xff, bytes.indexOf((byte) -1 & 0xff));
+    }
+
     public ArrayList<Rotor> getRotors(String[] names) {
         ArrayList<Rotor> rotorList = new ArrayList<>();
         for (String rotorName : names) {
@@ -115,7 +152,23 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         System.exit(textui.runClasses(PermutationTest.class,
-                                      MovingRotorTest.class));
+                                      MovingRotorTest.class,
+                                      CompiledMachineTest.class,
+                                      ParallelMachineTest.class,
+                                      MachineSpecTest.class,
+                                      BatchEncryptorTest.class,
+                                      KeySearchTest.class,
+                                      BombeTest.class,
+                                      KeystreamTableTest.class,
+                                      TableStoreTest.class,
+                                      ConfigImageTest.class,
+                                      LaneEngineTest.class,
+                                      EnigmaServerTest.class,
+                                      MetricsTest.class,
+                                      FlightAnalyzerTest.class,
+                                      StreamSessionTest.class,
+                                      PipelineTest.class,
+                                      MappedOutputTest.class));
     }
 
 }
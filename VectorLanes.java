@@ -0,0 +1,130 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** The stages of a LaneEngine done with the Vector API: each rotor
+ *  lookup of a vector of lanes is one gather from the rotor's table, and
+ *  rotor stepping is done with comparisons against each notch and
+ *  blends.  (A gather from a notch table would be shorter, but crashes
+ *  the JDK 17 compiler on AVX-512 hardware.)  Lanes that do
+ *  not fill a whole vector are left to a scalar kernel, so that no
+ *  masked loads, stores or gathers are needed.  This class is only
+ *  loaded when the jdk.incubator.vector module is present (see
+ *  LaneEngine).
+ *  @author Nitin Nazeer
+ */
+final class VectorLanes implements LaneEngine.Kernel {
+
+    /** Vector shape used. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+    /** Stages over an alphabet of SIZE symbols for LANES lanes, where
+     *  slot I has notches NOTCHES[I] and a ratchet iff ROTATES[I].  Lanes
+     *  beyond the last whole vector are handled by TAIL. */
+    VectorLanes(int size, int lanes, boolean[][] notches,
+                boolean[] rotates, LaneEngine.Kernel tail) {
+        _size = size;
+        _rotates = rotates;
+        _notchList = new int[notches.length][];
+        for (int i = 0; i < notches.length; i += 1) {
+            int count = 0;
+            for (boolean at : notches[i]) {
+                count += at ? 1 : 0;
+            }
+            _notchList[i] = new int[count];
+            for (int p = 0, k = 0; p < notches[i].length; p += 1) {
+                if (notches[i][p]) {
+                    _notchList[i][k] = p;
+                    k += 1;
+                }
+            }
+        }
+        _index = new int[lanes];
+        _tail = tail;
+    }
+
+    @Override
+    public void step(int[][] posn, int[][] offset, int from, int to) {
+        int last = posn.length - 1, width = SPECIES.length();
+        int end = from + (to - from) / width * width;
+        for (int i = 0; i <= last; i += 1) {
+            boolean right = i < last && _rotates[i];
+            boolean left = i > 0 && i < last && _rotates[i - 1];
+            boolean always = i == last && _rotates[i];
+            if (!right && !left && !always) {
+                continue;
+            }
+            for (int b = from; b < end; b += width) {
+                VectorMask<Integer> move;
+                if (always) {
+                    move = SPECIES.maskAll(true);
+                } else {
+                    move = SPECIES.maskAll(false);
+                    if (right) {
+                        move = atNotch(i + 1, posn[i + 1], b);
+                    }
+                    if (left) {
+                        move = move.or(atNotch(i, posn[i], b));
+                    }
+                }
+                advance(posn[i], b, move);
+                advance(offset[i], b, move);
+            }
+        }
+        _tail.step(posn, offset, end, to);
+    }
+
+    /** Return the lanes B .. B + vector length - 1 for which slot I, in
+     *  settings POSN, is at a notch. */
+    private VectorMask<Integer> atNotch(int i, int[] posn, int b) {
+        IntVector p = IntVector.fromArray(SPECIES, posn, b);
+        VectorMask<Integer> result = SPECIES.maskAll(false);
+        for (int notch : _notchList[i]) {
+            result = result.or(p.compare(VectorOperators.EQ, notch));
+        }
+        return result;
+    }
+
+    /** Advance V[B ..] by one, modulo the alphabet size, in the lanes in
+     *  MOVE. */
+    private void advance(int[] v, int b, VectorMask<Integer> move) {
+        IntVector x = IntVector.fromArray(SPECIES, v, b);
+        IntVector y = x.add(1);
+        y = y.blend(0, y.compare(VectorOperators.EQ, _size));
+        x.blend(y, move).intoArray(v, b);
+    }
+
+    @Override
+    public void lookup(int[] table, int[] offset, int[] c, int from,
+                       int to) {
+        int width = SPECIES.length();
+        int end = from + (to - from) / width * width;
+        for (int b = from; b < end; b += width) {
+            IntVector o = IntVector.fromArray(SPECIES, offset, b);
+            IntVector.fromArray(SPECIES, c, b).add(o).intoArray(_index, b);
+            IntVector v = IntVector.fromArray(SPECIES, table, 0, _index, b)
+                .sub(o);
+            v.add(_size, v.compare(VectorOperators.LT, 0)).intoArray(c, b);
+        }
+        _tail.lookup(table, offset, c, end, to);
+    }
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** _rotates[I] is true iff slot I has a ratchet. */
+    private final boolean[] _rotates;
+
+    /** The notch settings of each slot. */
+    private final int[][] _notchList;
+
+    /** Table indices of each lane, for gathers. */
+    private final int[] _index;
+
+    /** Handles lanes that do not fill a vector. */
+    private final LaneEngine.Kernel _tail;
+}